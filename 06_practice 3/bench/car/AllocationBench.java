@@ -0,0 +1,88 @@
+package car;
+
+import car.event.CarEventBus;
+import car.event.SlowConsumerPolicy;
+import car.journal.EventJournal;
+import car.metrics.CarMetrics;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 移动热点路径每次操作分配多少字节：用 HotSpot 的线程分配计数（com.sun.management.ThreadMXBean），
+ * 只数调用线程自己的分配，事件总线、日志的后台线程不算。先预热让 JIT 编译完，再量 OPS 次。
+ * 用法：java -Dbench.filter=step AllocationBench，过滤条件是基准名的子串，不给就全跑。
+ **/
+public class AllocationBench {
+    interface Op {
+        void run(int i);
+    }
+
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 3) * 200_000;
+    private static final int OPS = 1_000_000;
+    private static final String filter = System.getProperty("bench.filter", "");
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-48s %12s%n", "benchmark", "bytes/op");
+        fieldMatrix();
+        server("Car.step + NoopListener", new NoopListener());
+
+        CarEventBus bus = new CarEventBus(1 << 14);
+        bus.subscribe(new NoopListener(), SlowConsumerPolicy.BLOCK);
+        server("Car.step + CarEventBus BLOCK", bus);
+        bus.close();
+
+        Path file = Files.createTempFile("alloc-bench", ".journal");
+        FieldMatrix field = new FieldMatrix(64, 64);
+        EventJournal journal = new EventJournal(field, file);
+        server("Car.step + EventJournal", field, journal);
+        journal.close();
+        Files.delete(file);
+
+        CarMetrics.setEnabled(true);
+        server("Car.step + NoopListener, metrics on", new NoopListener());
+        CarMetrics.setEnabled(false);
+    }
+
+    /* ===== FieldMatrix 打包坐标的移动 ===== */
+    static void fieldMatrix() {
+        FieldMatrix fm = new FieldMatrix(64, 64);
+        fm.occupyCell(0, 0);
+        long home = Position.pack(0, 0), right = Position.pack(0, 1);
+        measure("FieldMatrix.moveCarTo(long, Direction)", i -> {
+            fm.moveCarTo(home, CarServer.Direction.RIGHT);
+            fm.moveCarTo(right, CarServer.Direction.LEFT);
+        });
+        measure("FieldMatrix.moveCarAlong(long, Direction, 7)", i -> {
+            fm.moveCarAlong(home, CarServer.Direction.DOWN, 7);
+            fm.moveCarAlong(Position.pack(7, 0), CarServer.Direction.UP, 7);
+        });
+    }
+
+    /* ===== 经过 BasicCarServer 和监听者的整条路径，成功和撞墙各量一次 ===== */
+    static void server(String name, CarEventsListener listener) {
+        server(name, new FieldMatrix(64, 64), listener);
+    }
+
+    static void server(String name, FieldMatrix field, CarEventsListener listener) {
+        if (!name.contains(filter)) return;
+        BasicCarServer server = new BasicCarServer(field, listener);
+        Car car = server.createCarNear(0, 0);
+        measure(name, i -> car.step(i % 2 == 0 ? CarServer.Direction.RIGHT : CarServer.Direction.LEFT));
+        measure(name + " (blocked)", i -> car.step(CarServer.Direction.UP));
+        server.destroyCar(car);
+    }
+
+    private static void measure(String name, Op op) {
+        if (!name.contains(filter)) return;
+        for (int i = 0; i < WARMUP; i++) op.run(i);
+        long tid = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < OPS; i++) op.run(i);
+        long bytes = threads.getThreadAllocatedBytes(tid) - before;
+        System.out.printf("%-48s %12.3f%n", name, (double) bytes / OPS);
+    }
+}
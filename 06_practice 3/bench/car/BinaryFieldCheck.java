@@ -0,0 +1,87 @@
+package car;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * 二进制地图（BinaryField）和文本地图一致性的检查：随机生成几种尺寸的文本地图（列数不是 16/64 的倍数、
+ * 有的行比 cols 短），分别用 FieldMatrix.load 和 BinaryField.convert + map 打开，快照逐 word 对比；
+ * 映射地图先零散读几格、只展开一部分块再对比一次，再从映射地图 save 回文件重新打开对比。
+ * 最后把映射地图的空格全部分配掉，确认没有分到墙上、也没有漏掉空格。
+ * 用法：BinaryFieldCheck，不通过时以退出码 1 结束
+ **/
+public class BinaryFieldCheck {
+    public static void main(String[] args) throws IOException {
+        int[][] sizes = {{1, 1}, {3, 17}, {64, 64}, {100, 333}, {517, 250}, {1, 40000}};
+        Random rnd = new Random(16);
+        Path bin = Files.createTempFile("field", ".bin"), saved = Files.createTempFile("field", ".bin");
+        int failures = 0;
+        try {
+            for (int[] size : sizes) {
+                int rows = size[0], cols = size[1];
+                String text = randomText(rows, cols, rnd);
+                FieldMatrix loaded = FieldMatrix.load(new InputStreamReader(new ByteArrayInputStream(text.getBytes())));
+                BinaryField.convert(new StringReader(text), bin);
+
+                FieldMatrix mapped = BinaryField.map(bin);
+                int partial = 0;
+                for (int i = 0; i < 20; i++) {
+                    int r = rnd.nextInt(rows), c = rnd.nextInt(cols);
+                    if (mapped.getCellState(r, c) != loaded.getCellState(r, c)) partial++;
+                }
+                int words = diffWords(loaded.snapshot(), mapped.snapshot());
+
+                BinaryField.save(mapped, saved);
+                int resaved = diffWords(loaded.snapshot(), BinaryField.map(saved).snapshot());
+
+                int walls = loaded.snapshot().countWalls(), free = rows * cols - walls, allocated = 0, onWall = 0;
+                FieldMatrix fresh = BinaryField.map(bin);
+                try {
+                    while (true) {
+                        Position p = fresh.occupyFreeCell(FieldMatrix.AllocationPolicy.FIRST_FREE);
+                        if (loaded.getCellState(p.row, p.col) == FieldMatrix.CellState.WALL) onWall++;
+                        allocated++;
+                    }
+                } catch (RuntimeException full) {
+                    // 空格分完了
+                }
+
+                System.out.println(rows + "x" + cols + ": walls=" + walls + " cellsDiffer=" + partial + " wordsDiffer=" + words
+                        + " afterSave=" + resaved + " free=" + free + " allocated=" + allocated + " onWall=" + onWall);
+                if (partial != 0 || words != 0 || resaved != 0 || allocated != free || onWall != 0) failures++;
+            }
+        } finally {
+            Files.deleteIfExists(bin);
+            Files.deleteIfExists(saved);
+        }
+        if (failures != 0) {
+            System.out.println("FAILED: binary field differs from the text field");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    // 约两成是墙；每隔几行故意写短一截，后面按空格算
+    private static String randomText(int rows, int cols, Random rnd) {
+        StringBuilder text = new StringBuilder(rows * (cols + 1) + 16).append(rows).append(' ').append(cols).append('\n');
+        for (int r = 0; r < rows; r++) {
+            int n = r % 7 == 3 ? rnd.nextInt(cols + 1) : cols;
+            for (int c = 0; c < n; c++) text.append(rnd.nextInt(5) == 0 ? '*' : ' ');
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    private static int diffWords(FieldSnapshot expected, FieldSnapshot actual) {
+        if (expected.words.length != actual.words.length) return Math.max(expected.words.length, actual.words.length);
+        int differ = 0;
+        for (int i = 0; i < expected.words.length; i++)
+            if (expected.words[i] != actual.words[i]) differ++;
+        return differ;
+    }
+}
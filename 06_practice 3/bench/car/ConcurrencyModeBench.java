@@ -0,0 +1,89 @@
+package car;
+
+import car.util.CarExecutors;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 每辆车一个任务（CarMover 式循环：moveTo 里 sleep 再走一步），
+ * 比较平台线程和虚拟线程各能撑住多少辆同时在跑的车、各占多少内存。
+ * 用法：ConcurrencyModeBench <platform|virtual> [maxCars] [seconds]
+ * 两种模式请分开进程跑，避免互相影响内存数字。
+ **/
+public class ConcurrencyModeBench {
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "virtual";
+        int maxCars = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        if ("virtual".equals(mode) && !CarExecutors.virtualThreadsSupported())
+            System.out.println("note: running on JDK " + Runtime.version().feature() + ", virtual mode uses platform threads");
+
+        System.out.printf("%-9s %8s %14s %14s %10s %12s %12s%n",
+                "mode", "cars", "steps/s", "expected/s", "threads", "heap MB", "rss MB");
+        for (int cars = 1000; cars <= maxCars; cars *= 2) {
+            if (!round(mode, cars, seconds)) break;
+        }
+    }
+
+    // 返回 false 表示这个规模已经撑不住：跟不上 speed，或建不出线程（OutOfMemoryError: unable to create native thread）
+    private static boolean round(String mode, int cars, int seconds) throws Exception {
+        int side = (int) Math.ceil(Math.sqrt(cars * 4.0));
+        FieldMatrix fm = new FieldMatrix(side, side);
+        BasicCarServer server = new BasicCarServer(fm, new NoopListener());
+        server.setAllocationPolicy(FieldMatrix.AllocationPolicy.RANDOM_FREE);
+        ExecutorService executor = "platform".equals(mode) ? CarExecutors.platformThreads() : CarExecutors.virtualThreads();
+        server.setBehaviorExecutor(executor);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder moves = new LongAdder();
+        double expected = 0;
+        List<Car> fleet = server.createCars(cars);
+        boolean ok = true;
+        try {
+            for (Car car : fleet) {
+                expected += 1000.0 / car.getSpeed();
+                server.runBehavior(() -> {
+                    CarServer.Direction[] dirs = CarServer.Direction.values();
+                    int d = 0;
+                    while (running.get()) {
+                        if (!car.moveTo(dirs[d])) d = (d + 1) & 3;
+                        moves.increment();
+                    }
+                });
+            }
+            Thread.sleep(1000); // 等所有车进入稳定状态
+            moves.reset();
+            long t0 = System.nanoTime();
+            Thread.sleep(seconds * 1000L);
+            double rate = moves.sum() * 1e9 / (System.nanoTime() - t0);
+            Runtime rt = Runtime.getRuntime();
+            System.out.printf("%-9s %8d %,14.0f %,14.0f %10d %12.1f %12.1f%n", mode, cars, rate, expected,
+                    Thread.activeCount(), (rt.totalMemory() - rt.freeMemory()) / 1048576.0, rssMb());
+            ok = rate > expected * 0.9; // 跟不上 speed 就算撑不住
+        } catch (OutOfMemoryError | RejectedExecutionException e) {
+            System.out.printf("%-9s %8d failed: %s%n", mode, cars, e);
+            ok = false;
+        } finally {
+            running.set(false);
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        return ok;
+    }
+
+    private static double rssMb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status")))
+                if (line.startsWith("VmRSS:"))
+                    return Long.parseLong(line.replaceAll("\\D", "")) / 1024.0;
+        } catch (Exception ignored) {}
+        return -1;
+    }
+}
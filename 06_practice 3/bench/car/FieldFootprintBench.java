@@ -0,0 +1,48 @@
+package car;
+
+/**
+ * 对比 FieldMatrix 新旧布局的堆占用。
+ * 用法：FieldFootprintBench [rows] [cols]，大地图记得加 -Xmx
+ **/
+public class FieldFootprintBench {
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int cols = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        System.out.println("field " + rows + "x" + cols + " (" + (long) rows * cols + " cells)");
+
+        long before = usedHeap();
+        FieldMatrix packed = new FieldMatrix(rows, cols);
+        long packedBytes = usedHeap() - before;
+        report("packed 2-bit", packedBytes, rows, cols);
+        packed.addWall(0, 0); // 保持引用存活到测量之后
+
+        before = usedHeap();
+        LegacyFieldMatrix legacy;
+        try {
+            legacy = new LegacyFieldMatrix(rows, cols);
+        } catch (OutOfMemoryError e) {
+            System.out.println("legacy CellState[][]+ReentrantLock[][]: OutOfMemoryError");
+            return;
+        }
+        long legacyBytes = usedHeap() - before;
+        report("legacy CellState[][]+ReentrantLock[][]", legacyBytes, rows, cols);
+        legacy.addWall(0, 0);
+
+        if (packedBytes > 0)
+            System.out.printf("legacy / packed = %.1fx%n", (double) legacyBytes / packedBytes);
+    }
+
+    private static void report(String name, long bytes, int rows, int cols) {
+        System.out.printf("%-40s %,14d bytes  %6.2f bytes/cell%n",
+                name, bytes, (double) bytes / ((long) rows * cols));
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try { Thread.sleep(50); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,71 @@
+package car;
+
+import car.sim.CarController;
+import car.sim.Simulation;
+
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 成组移动（CarServer.moveCars）和逐辆走的对比：512x512 的地图铺满一圈套一圈的环形路，
+ * 车按顺时针沿自己那一圈走，车流里前车挡后车。同样的车分别用逐辆 step 和 Simulation.setGroupMoves 跑，
+ * 报告每个 tick 实际走成的比例和每秒车次。密度 1.0 时每圈都排满，逐辆走谁也动不了，成组时整圈一起转。
+ * 系统属性：bench.density（逗号分隔，默认 0.5,0.9,1.0）、bench.ticks（默认 20）。
+ **/
+public class GroupMoveBench {
+    private static final int SIZE = 512;
+    private static final int TICKS = Integer.getInteger("bench.ticks", 20);
+
+    // 顺时针：上边往右、右边往下、下边往左、左边往上
+    private static final class RingRoad implements CarController {
+        final LongAdder moved = new LongAdder();
+
+        @Override
+        public CarServer.Direction nextMove(Car car, long tick) {
+            int r = car.getRow(), c = car.getCol();
+            int ring = Math.min(Math.min(r, c), Math.min(SIZE - 1 - r, SIZE - 1 - c));
+            int last = SIZE - 1 - ring;
+            if (r == ring && c < last) return CarServer.Direction.RIGHT;
+            if (c == last && r < last) return CarServer.Direction.DOWN;
+            if (r == last && c > ring) return CarServer.Direction.LEFT;
+            return CarServer.Direction.UP;
+        }
+
+        @Override
+        public void moveResult(Car car, CarServer.Direction direction, boolean success, long tick) {
+            if (success) moved.increment();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-28s %8s %8s %10s %16s%n", "benchmark", "density", "cars", "moved%", "moves/s");
+        for (String s : System.getProperty("bench.density", "0.5,0.9,1.0").split(",")) {
+            double density = Double.parseDouble(s.trim());
+            run("Car.step one by one", density, false);
+            run("CarServer.moveCars", density, true);
+        }
+    }
+
+    private static void run(String name, double density, boolean group) throws Exception {
+        BasicCarServer server = new BasicCarServer(new FieldMatrix(SIZE, SIZE), new NoopListener());
+        Simulation sim = new Simulation(1, 1000); // 车的间隔都是 1 个 tick
+        RingRoad road = new RingRoad();
+        Random rnd = new Random(7);
+        int cars = 0;
+        for (int r = 0; r < SIZE; r++)
+            for (int c = 0; c < SIZE; c++)
+                if (rnd.nextDouble() < density) {
+                    sim.register(server.createCarNear(r, c), road);
+                    cars++;
+                }
+        if (group) sim.setGroupMoves(server);
+        sim.runTicks(TICKS / 4);
+        long before = road.moved.sum();
+        long t0 = System.nanoTime();
+        long processed = sim.runTicks(TICKS);
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        long moved = road.moved.sum() - before;
+        System.out.printf("%-28s %8.2f %8d %9.1f%% %,16.0f%n", name, density, cars, 100.0 * moved / processed, processed / seconds);
+        sim.shutdown();
+    }
+}
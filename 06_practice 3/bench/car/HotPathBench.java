@@ -0,0 +1,265 @@
+package car;
+
+import car.command.Script;
+import car.event.CarEventBus;
+import car.event.SlowConsumerPolicy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟器热点路径的 JMH 基准，全部无界面运行（CarPainter 换成 NoopListener）。
+ * 用法：mvn -B package 之后 java -jar jmh/target/benchmarks.jar HotPathBench.moveCarTo -t 4 -p density=0.2，
+ * 正则选基准，-t 给线程数（原来的 1/4/16/64 档），-p 改参数。结果都是每秒操作数，按格/按行计的已经折算好。
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class HotPathBench {
+
+    /* ===== FieldMatrix.moveCarTo：不同线程数 x 车密度 ===== */
+    @State(Scope.Benchmark)
+    public static class Crowd {
+        static final int SIZE = 512;
+
+        @Param({"0.05", "0.2", "0.5"})
+        double density;
+        FieldMatrix fm;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            fm = new FieldMatrix(SIZE, SIZE);
+        }
+    }
+
+    // 每个线程在同一张图上各摆自己的一批车，只挪自己的
+    @State(Scope.Thread)
+    public static class OwnCars {
+        int[] rows, cols;
+        Random rnd;
+
+        @Setup(Level.Trial)
+        public void place(Crowd crowd, BenchmarkParams params) {
+            int n = Math.max(1, (int) (Crowd.SIZE * Crowd.SIZE * crowd.density) / params.getThreads());
+            rows = new int[n];
+            cols = new int[n];
+            for (int i = 0; i < n; i++) {
+                Position p = crowd.fm.occupyFreeCell(FieldMatrix.AllocationPolicy.RANDOM_FREE);
+                rows[i] = p.row;
+                cols[i] = p.col;
+            }
+            rnd = new Random(Thread.currentThread().getId());
+        }
+    }
+
+    @Benchmark
+    public void moveCarTo(Crowd crowd, OwnCars cars, Blackhole bh) {
+        int i = cars.rnd.nextInt(cars.rows.length);
+        int tr = cars.rows[i], tc = cars.cols[i];
+        switch (cars.rnd.nextInt(4)) {
+            case 0: tr--; break;
+            case 1: tr++; break;
+            case 2: tc--; break;
+            default: tc++;
+        }
+        boolean moved = crowd.fm.moveCarTo(cars.rows[i], cars.cols[i], tr, tc);
+        if (moved) {
+            cars.rows[i] = tr;
+            cars.cols[i] = tc;
+        }
+        bh.consume(moved);
+    }
+
+    /* ===== 直线连走 7 格：逐格 moveCarTo vs 一次 moveCarAlong（按走过的格数计） ===== */
+    @State(Scope.Thread)
+    public static class Lane {
+        @Param({"DOWN", "RIGHT"})
+        String axis;
+        int dr, dc;
+        FieldMatrix fm;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            dr = axis.equals("DOWN") ? 1 : 0;
+            dc = 1 - dr;
+            fm = new FieldMatrix(64, 64);
+            fm.occupyCell(0, 0);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(14)
+    public void moveCarToX7(Lane lane, Blackhole bh) {
+        int dr = lane.dr, dc = lane.dc;
+        for (int i = 0; i < 7; i++) bh.consume(lane.fm.moveCarTo(i * dr, i * dc, (i + 1) * dr, (i + 1) * dc));
+        for (int i = 7; i > 0; i--) bh.consume(lane.fm.moveCarTo(i * dr, i * dc, (i - 1) * dr, (i - 1) * dc));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(14)
+    public void moveCarAlong7(Lane lane, Blackhole bh) {
+        bh.consume(lane.fm.moveCarAlong(0, 0, lane.dr, lane.dc, 7));
+        bh.consume(lane.fm.moveCarAlong(7 * lane.dr, 7 * lane.dc, -lane.dr, -lane.dc, 7));
+    }
+
+    /* ===== occupyFirstFreeCellByCar：空地图 / 几乎满的地图 ===== */
+    @State(Scope.Thread)
+    public static class EmptyField {
+        static final int SIZE = 1024;
+        FieldMatrix fm;
+        int used;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            fm = new FieldMatrix(SIZE, SIZE);
+            used = 0;
+        }
+    }
+
+    @Benchmark
+    public Position occupyFirstFreeEmpty(EmptyField field) {
+        // 占满之前换一张新图，保证一直是“空”地图的情形
+        if (++field.used > EmptyField.SIZE * EmptyField.SIZE / 10) field.setUp();
+        return field.fm.occupyFirstFreeCellByCar();
+    }
+
+    @State(Scope.Thread)
+    public static class NearlyFullField {
+        FieldMatrix fm;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            int size = 1024;
+            fm = new FieldMatrix(size, size);
+            Random rnd = new Random(7);
+            // 只留 0.1% 的空格，随机散布
+            for (int r = 0; r < size; r++)
+                for (int c = 0; c < size; c++)
+                    if (rnd.nextInt(1000) != 0) fm.addWall(r, c);
+        }
+    }
+
+    @Benchmark
+    public boolean occupyFirstFreeNearlyFull(NearlyFullField field) {
+        Position p = field.fm.occupyFirstFreeCellByCar();
+        return field.fm.releaseCell(p.row, p.col);
+    }
+
+    /* ===== 整图扫描：逐格 getCellState vs 一次快照（按格计） ===== */
+    @State(Scope.Benchmark)
+    public static class ScanField {
+        static final int SIZE = 1024;
+        FieldMatrix fm;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            fm = new FieldMatrix(SIZE, SIZE);
+            Random rnd = new Random(3);
+            for (int i = 0; i < SIZE * SIZE / 10; i++) fm.addWall(rnd.nextInt(SIZE), rnd.nextInt(SIZE));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SnapshotBuffer {
+        FieldSnapshot snapshot;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ScanField.SIZE * ScanField.SIZE)
+    public int getCellStateScan(ScanField field) {
+        int walls = 0;
+        for (int r = 0; r < ScanField.SIZE; r++)
+            for (int c = 0; c < ScanField.SIZE; c++)
+                if (field.fm.getCellState(r, c) == FieldMatrix.CellState.WALL) walls++;
+        return walls;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ScanField.SIZE * ScanField.SIZE)
+    public int snapshotScan(ScanField field, SnapshotBuffer buffer) {
+        FieldSnapshot snapshot = buffer.snapshot = field.fm.snapshot(buffer.snapshot);
+        int walls = 0;
+        for (int r = 0; r < ScanField.SIZE; r++)
+            for (int c = 0; c < ScanField.SIZE; c++)
+                if (snapshot.isWall(r, c)) walls++;
+        return walls;
+    }
+
+    /* ===== Script.load：大脚本（按行计） ===== */
+    @State(Scope.Thread)
+    public static class ScriptText {
+        static final int LINES = 100_000;
+        byte[] script;
+        Car car;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            String[] templates = {"DOWN 3", "UP 2", "LEFT 1", "RIGHT 4", "CHANGECOLOR blue", "NAME Alex", "BLINK green"};
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < LINES; i++) sb.append(templates[i % templates.length]).append('\n');
+            script = sb.toString().getBytes(StandardCharsets.UTF_8);
+            car = new BasicCarServer(new FieldMatrix(16, 16), new NoopListener()).createCar();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ScriptText.LINES)
+    public void scriptLoad(ScriptText text, Blackhole bh) {
+        bh.consume(Script.load(new InputStreamReader(new ByteArrayInputStream(text.script), StandardCharsets.UTF_8), text.car));
+    }
+
+    /* ===== 监听者分发：同步空监听 vs 事件总线 ===== */
+    // 车在两格之间来回走，每步都经过 BasicCarServer.moveCarTo -> listener.carMoved
+    @State(Scope.Benchmark)
+    public static class Dispatch {
+        @Param({"direct", "busBlock", "busDrop"})
+        String listener;
+        CarEventBus bus;
+        BasicCarServer server;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            CarEventsListener target = new NoopListener();
+            if (!listener.equals("direct")) {
+                bus = new CarEventBus(1 << 14);
+                bus.subscribe(new NoopListener(), listener.equals("busBlock") ? SlowConsumerPolicy.BLOCK : SlowConsumerPolicy.DROP);
+                target = bus;
+            }
+            server = new BasicCarServer(new FieldMatrix(256, 256), target);
+            server.setAllocationPolicy(FieldMatrix.AllocationPolicy.RANDOM_FREE);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (bus != null) bus.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Shuttle {
+        Car car;
+        CarServer.Direction there, back;
+
+        @Setup(Level.Trial)
+        public void setUp(Dispatch dispatch) {
+            car = dispatch.server.createCar();
+            there = car.getPosition().row == 0 ? CarServer.Direction.DOWN : CarServer.Direction.UP;
+            back = there == CarServer.Direction.DOWN ? CarServer.Direction.UP : CarServer.Direction.DOWN;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void listenerDispatch(Shuttle shuttle, Blackhole bh) {
+        bh.consume(shuttle.car.step(shuttle.there));
+        bh.consume(shuttle.car.step(shuttle.back));
+    }
+}
@@ -0,0 +1,74 @@
+package car;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// 旧的布局：每格一个 CellState 引用 + 一把 ReentrantLock，只用于基准对比
+class LegacyFieldMatrix {
+    private final FieldMatrix.CellState[][] cells;
+    private final ReentrantLock[][] locks;
+
+    final int rows;
+    final int cols;
+
+    LegacyFieldMatrix(int rows, int cols){
+        this.rows = rows;
+        this.cols = cols;
+        this.cells = new FieldMatrix.CellState[rows][cols];
+        this.locks = new ReentrantLock[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                cells[r][c] = FieldMatrix.CellState.EMPTY;
+                locks[r][c] = new ReentrantLock();
+            }
+        }
+    }
+
+    FieldMatrix.CellState getCellState(int r, int c){
+        locks[r][c].lock();
+        try {
+            return cells[r][c];
+        } finally {
+            locks[r][c].unlock();
+        }
+    }
+
+    boolean addWall(int r, int c){
+        locks[r][c].lock();
+        try{
+            if (cells[r][c] == FieldMatrix.CellState.EMPTY){
+                cells[r][c] = FieldMatrix.CellState.WALL;
+                return true;
+            }
+            return false;
+        } finally {
+            locks[r][c].unlock();
+        }
+    }
+
+    boolean occupy(int r, int c){
+        locks[r][c].lock();
+        try{
+            if (cells[r][c] == FieldMatrix.CellState.EMPTY){
+                cells[r][c] = FieldMatrix.CellState.CAR;
+                return true;
+            }
+            return false;
+        } finally {
+            locks[r][c].unlock();
+        }
+    }
+
+    boolean moveCarTo(int fr, int fc, int tr, int tc){
+        if (tr < 0 || tr >= rows || tc < 0 || tc >= cols) return false;
+        locks[tr][tc].lock();
+        try {
+            if (cells[fr][fc] != FieldMatrix.CellState.CAR)   return false;
+            if (cells[tr][tc] != FieldMatrix.CellState.EMPTY) return false;
+            cells[fr][fc] = FieldMatrix.CellState.EMPTY;
+            cells[tr][tc] = FieldMatrix.CellState.CAR;
+            return true;
+        } finally {
+            locks[tr][tc].unlock();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package car;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * FieldMatrix.moveCarTo / moveCarAlong 的并发压力检查：多线程乱挪车 + 一个线程乱加拆墙，
+ * 结束后校验每辆车都在自己记录的位置上、格子里的 CAR 数量等于车的数量（不重不丢），
+ * 再把剩下的空格全部分配掉，校验空格索引没有漏掉或多出格子。
+ * 之后再跑一段快照检查：写线程都挑线程号落在同一个 seqlock 计数段上的，让几个写在同一段上重叠，
+ * 同时有一个线程做批量移动（moveCars），另一个线程不停拍快照，每张快照里的车数都必须等于总数。
+ * 用法：MoveStressCheck [threads] [seconds]，不通过时以退出码 1 结束
+ **/
+public class MoveStressCheck {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int rows = 64, cols = 64, carsPerThread = 64;
+
+        FieldMatrix fm = new FieldMatrix(rows, cols);
+        Random placer = new Random(42);
+        int[][] carRows = new int[threads][carsPerThread];
+        int[][] carCols = new int[threads][carsPerThread];
+        for (int t = 0; t < threads; t++)
+            for (int i = 0; i < carsPerThread; i++) {
+                int r, c;
+                do { r = placer.nextInt(rows); c = placer.nextInt(cols); } while (!fm.occupyCell(r, c));
+                carRows[t][i] = r;
+                carCols[t][i] = c;
+            }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] moves = new long[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            new Thread(() -> {
+                Random rnd = new Random(id);
+                int[] rs = carRows[id], cs = carCols[id];
+                CarServer.Direction[] dirs = CarServer.Direction.values();
+                while (running.get()) {
+                    int i = rnd.nextInt(carsPerThread);
+                    int dr = 0, dc = 0;
+                    switch (dirs[rnd.nextInt(4)]) {
+                        case UP: dr = -1; break;
+                        case DOWN: dr = 1; break;
+                        case LEFT: dc = -1; break;
+                        case RIGHT: dc = 1; break;
+                    }
+                    if (rnd.nextInt(3) == 0) {
+                        int k = fm.moveCarAlong(rs[i], cs[i], dr, dc, 1 + rnd.nextInt(8));
+                        rs[i] += k * dr;
+                        cs[i] += k * dc;
+                        moves[id] += k;
+                        continue;
+                    }
+                    int tr = rs[i] + dr, tc = cs[i] + dc;
+                    if (fm.moveCarTo(rs[i], cs[i], tr, tc)) {
+                        rs[i] = tr;
+                        cs[i] = tc;
+                        moves[id]++;
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        Thread walls = new Thread(() -> {
+            Random rnd = new Random(7);
+            while (running.get()) {
+                int r = rnd.nextInt(rows), c = rnd.nextInt(cols);
+                if (rnd.nextBoolean()) fm.addWall(r, c); else fm.removeWall(r, c);
+            }
+        });
+        walls.start();
+
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        done.await();
+        walls.join();
+
+        int errors = 0;
+        long totalMoves = 0;
+        for (int t = 0; t < threads; t++) {
+            totalMoves += moves[t];
+            for (int i = 0; i < carsPerThread; i++)
+                if (fm.getCellState(carRows[t][i], carCols[t][i]) != FieldMatrix.CellState.CAR) errors++;
+        }
+        int carCells = 0, emptyCells = 0;
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++) {
+                FieldMatrix.CellState state = fm.getCellState(r, c);
+                if (state == FieldMatrix.CellState.CAR) carCells++;
+                if (state == FieldMatrix.CellState.EMPTY) emptyCells++;
+            }
+        int expected = threads * carsPerThread;
+        int allocated = 0;
+        try {
+            while (true) {
+                fm.occupyFreeCell(FieldMatrix.AllocationPolicy.FIRST_FREE);
+                allocated++;
+            }
+        } catch (RuntimeException full) {
+            // 空格分完了
+        }
+
+        System.out.println("threads=" + threads + " moves=" + totalMoves
+                + " cars=" + expected + " carCells=" + carCells + " misplaced=" + errors
+                + " emptyCells=" + emptyCells + " allocated=" + allocated);
+        if (errors != 0 || carCells != expected) {
+            System.out.println("FAILED: car duplicated or lost");
+            System.exit(1);
+        }
+        if (allocated != emptyCells) {
+            System.out.println("FAILED: free cell index out of sync");
+            System.exit(1);
+        }
+        if (!checkStripeCollisions(threads, seconds)) System.exit(1);
+        System.out.println("OK");
+    }
+
+    /* ===== 写者挤在同一个计数段上时的快照一致性 ===== */
+    private static boolean checkStripeCollisions(int writers, int seconds) throws Exception {
+        int rows = 64, cols = 64, carsPerWriter = 32, batchCars = 256;
+        FieldMatrix fm = new FieldMatrix(rows, cols);
+        Random placer = new Random(43);
+        int[][] cells = new int[writers + 1][]; // 最后一组给批量移动
+        for (int t = 0; t <= writers; t++) {
+            cells[t] = new int[t < writers ? carsPerWriter : batchCars];
+            for (int i = 0; i < cells[t].length; i++) {
+                int r, c;
+                do { r = placer.nextInt(rows); c = placer.nextInt(cols); } while (!fm.occupyCell(r, c));
+                cells[t][i] = r * cols + c;
+            }
+        }
+        int expected = writers * carsPerWriter + batchCars;
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        // 只上下挪：起点终点不在同一个 word，拷到一半的快照会多数出一辆车
+        Thread[] threads = new Thread[writers];
+        int picked = 0, stripe = -1;
+        while (picked < writers) {
+            int[] own = cells[picked];
+            int seed = picked;
+            Thread thread = new Thread(() -> {
+                Random rnd = new Random(seed);
+                while (running.get()) {
+                    int i = rnd.nextInt(own.length), r = own[i] / cols, c = own[i] % cols;
+                    int tr = r + (rnd.nextBoolean() ? 1 : -1);
+                    if (fm.moveCarTo(r, c, tr, c)) own[i] = tr * cols + c;
+                }
+            });
+            int s = (int) (thread.getId() & 63);
+            if (stripe < 0) stripe = s;
+            if (s == stripe) threads[picked++] = thread;
+        }
+        int[] batch = cells[writers];
+        Thread batcher = new Thread(() -> {
+            Random rnd = new Random(99);
+            int[] to = new int[batch.length];
+            while (running.get()) {
+                for (int i = 0; i < batch.length; i++) {
+                    int r = batch[i] / cols + (rnd.nextBoolean() ? 1 : -1);
+                    to[i] = Math.max(0, Math.min(rows - 1, r)) * cols + batch[i] % cols;
+                    if (to[i] == batch[i]) to[i] = batch[i] + (batch[i] / cols == 0 ? cols : -cols);
+                }
+                boolean[] moved = fm.moveCars(batch, to);
+                for (int i = 0; i < batch.length; i++) if (moved[i]) batch[i] = to[i];
+            }
+        });
+        long[] snapshots = new long[1], torn = new long[1];
+        Thread reader = new Thread(() -> {
+            FieldSnapshot snapshot = null;
+            while (running.get()) {
+                snapshot = fm.snapshot(snapshot);
+                if (snapshot.countCars() != expected) torn[0]++;
+                snapshots[0]++;
+            }
+        });
+        for (Thread thread : threads) thread.start();
+        batcher.start();
+        reader.start();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) thread.join();
+        batcher.join();
+        reader.join();
+
+        int misplaced = 0;
+        for (int[] own : cells)
+            for (int cell : own)
+                if (fm.getCellState(cell / cols, cell % cols) != FieldMatrix.CellState.CAR) misplaced++;
+        int carCells = fm.snapshot().countCars();
+        System.out.println("stripe collisions: writers=" + writers + " on stripe " + stripe + " snapshots=" + snapshots[0]
+                + " torn=" + torn[0] + " cars=" + expected + " carCells=" + carCells + " misplaced=" + misplaced);
+        if (torn[0] != 0 || carCells != expected || misplaced != 0) {
+            System.out.println("FAILED: snapshot torn or car lost while writers shared a stripe");
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,89 @@
+package car;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * moveCarTo 吞吐对比：无锁 CAS 版 FieldMatrix vs 旧的每格一锁 LegacyFieldMatrix，
+ * 1..64 个移动线程。用法：MoveThroughputBench [size] [density] [millis]
+ **/
+public class MoveThroughputBench {
+    interface Mover {
+        boolean moveCarTo(int fr, int fc, int tr, int tc);
+    }
+    interface Occupier {
+        boolean occupy(int r, int c);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        double density = args.length > 1 ? Double.parseDouble(args[1]) : 0.2;
+        int millis = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        System.out.printf("%dx%d field, density %.2f, %d ms per run%n", size, size, density, millis);
+        System.out.printf("%8s %18s %18s%n", "threads", "cas moves/s", "legacy moves/s");
+        for (int threads = 1; threads <= 64; threads <<= 1) {
+            FieldMatrix fm = new FieldMatrix(size, size);
+            double cas = run(fm::occupyCell, fm::moveCarTo, size, density, threads, millis);
+            LegacyFieldMatrix legacy = new LegacyFieldMatrix(size, size);
+            double locked = run(legacy::occupy, legacy::moveCarTo, size, density, threads, millis);
+            System.out.printf("%8d %,18.0f %,18.0f%n", threads, cas, locked);
+        }
+    }
+
+    static double run(Occupier occupier, Mover mover, int size, double density,
+                      int threads, int millis) throws InterruptedException {
+        int carsPerThread = Math.max(1, (int) (size * size * density) / threads);
+        Random placer = new Random(42);
+        int[][] rows = new int[threads][carsPerThread];
+        int[][] cols = new int[threads][carsPerThread];
+        for (int t = 0; t < threads; t++)
+            for (int i = 0; i < carsPerThread; i++) {
+                int r, c;
+                do { r = placer.nextInt(size); c = placer.nextInt(size); } while (!occupier.occupy(r, c));
+                rows[t][i] = r;
+                cols[t][i] = c;
+            }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] attempts = new long[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            new Thread(() -> {
+                Random rnd = new Random(id);
+                int[] rs = rows[id], cs = cols[id];
+                long n = 0;
+                try { start.await(); } catch (InterruptedException e) { return; }
+                while (running.get()) {
+                    int i = rnd.nextInt(carsPerThread);
+                    int tr = rs[i], tc = cs[i];
+                    switch (rnd.nextInt(4)) {
+                        case 0: tr--; break;
+                        case 1: tr++; break;
+                        case 2: tc--; break;
+                        default: tc++;
+                    }
+                    if (mover.moveCarTo(rs[i], cs[i], tr, tc)) {
+                        rs[i] = tr;
+                        cs[i] = tc;
+                    }
+                    n++;
+                }
+                attempts[id] = n;
+                done.countDown();
+            }).start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        running.set(false);
+        done.await();
+        long elapsed = System.nanoTime() - t0;
+        long total = 0;
+        for (long a : attempts) total += a;
+        return total * 1e9 / elapsed;
+    }
+}
@@ -0,0 +1,13 @@
+package car;
+
+// 基准里代替 CarPainter：不画，什么都不做
+class NoopListener implements CarEventsListener {
+    @Override
+    public void carCreated(Car car) {}
+    @Override
+    public void carDestroyed(Car car) {}
+    @Override
+    public void carMoved(Car car, Position from, Position to, boolean success) {}
+    @Override
+    public void carMoved(Car car, long from, long to, boolean success) {}
+}
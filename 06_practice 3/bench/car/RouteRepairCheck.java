@@ -0,0 +1,109 @@
+package car;
+
+import car.route.DistanceField;
+import car.route.Router;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Router 局部修补距离场的正确性检查：随机加墙/拆墙（偶尔动到目标格本身），每轮之后
+ * 把缓存里修补过的距离和这里对同一张快照从头 BFS 的结果逐格对比，再抽一个起点对比 A* 的路径长度。
+ * 每轮变的墙都很少，走的是修补而不是丢缓存重算；最后确认确实修补过。
+ * 偶尔一次改很多墙，超过 FieldMatrix 的改墙记录，检查退回整张快照对比的那条路。
+ * 用法：RouteRepairCheck [rounds]，不通过时以退出码 1 结束
+ **/
+public class RouteRepairCheck {
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rows = 48, cols = 64, goalCount = 6;
+        Random rnd = new Random(15);
+
+        FieldMatrix fm = new FieldMatrix(rows, cols);
+        for (int i = 0; i < rows * cols / 4; i++) fm.addWall(rnd.nextInt(rows), rnd.nextInt(cols));
+        Router router = new Router(fm, goalCount);
+        Position[] goals = new Position[goalCount];
+        for (int i = 0; i < goalCount; i++) goals[i] = new Position(rnd.nextInt(rows), rnd.nextInt(cols));
+        Position origin = new Position(0, 0);
+
+        long cells = 0, paths = 0;
+        int wrong = 0, wrongPaths = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int k = 1 + rnd.nextInt(4); k > 0; k--) {
+                int r = rnd.nextInt(rows), c = rnd.nextInt(cols);
+                if (rnd.nextBoolean()) fm.addWall(r, c); else fm.removeWall(r, c);
+            }
+            if (round % 500 == 499) {
+                for (int k = 0; k < 5000; k++) {
+                    int r = rnd.nextInt(rows), c = rnd.nextInt(cols);
+                    if (rnd.nextBoolean()) fm.addWall(r, c); else fm.removeWall(r, c);
+                }
+            }
+            if (rnd.nextInt(50) == 0) {
+                Position g = goals[rnd.nextInt(goalCount)];
+                fm.removeWall(g.row, g.col);
+                if (rnd.nextBoolean()) fm.addWall(g.row, g.col);
+            }
+            // 先让每个目标的距离场都在缓存里、跟上这一轮的墙
+            for (Position g : goals) router.distance(origin, g);
+
+            FieldSnapshot walls = fm.snapshot();
+            for (Position g : goals) {
+                int[] expected = bfs(walls, g.row * cols + g.col);
+                for (int r = 0; r < rows; r++)
+                    for (int c = 0; c < cols; c++, cells++)
+                        if (router.distance(new Position(r, c), g) != expected[r * cols + c]) wrong++;
+
+                Position from = new Position(rnd.nextInt(rows), rnd.nextInt(cols));
+                if (walls.isWall(from.row, from.col)) continue;
+                List<Position> path = router.findPath(from, g);
+                int d = expected[from.row * cols + from.col];
+                paths++;
+                if (path == null ? d != DistanceField.UNREACHABLE : path.size() != d) wrongPaths++;
+            }
+        }
+
+        System.out.println("rounds=" + rounds + " cells=" + cells + " wrong=" + wrong
+                + " paths=" + paths + " wrongPaths=" + wrongPaths
+                + " hits=" + router.getHits() + " misses=" + router.getMisses() + " repairs=" + router.getRepairs());
+        if (wrong != 0) {
+            System.out.println("FAILED: repaired distance field differs from a fresh BFS");
+            System.exit(1);
+        }
+        if (wrongPaths != 0) {
+            System.out.println("FAILED: A* path length differs from the BFS distance");
+            System.exit(1);
+        }
+        if (router.getRepairs() == 0) {
+            System.out.println("FAILED: no incremental repair happened");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    // 从目标格整张 BFS，和 DistanceField 的约定一样：目标是墙时全部走不到
+    private static int[] bfs(FieldSnapshot walls, int goal) {
+        int cols = walls.cols, cells = walls.rows * cols;
+        int[] dist = new int[cells];
+        Arrays.fill(dist, DistanceField.UNREACHABLE);
+        if (walls.isWall(goal / cols, goal % cols)) return dist;
+        int[] queue = new int[cells];
+        int head = 0, tail = 0;
+        dist[goal] = 0;
+        queue[tail++] = goal;
+        while (head < tail) {
+            int u = queue[head++], r = u / cols, c = u % cols;
+            for (int dir = 0; dir < 4; dir++) {
+                int nr = r + (dir == 0 ? -1 : dir == 1 ? 1 : 0);
+                int nc = c + (dir == 2 ? -1 : dir == 3 ? 1 : 0);
+                if (nr < 0 || nr >= walls.rows || nc < 0 || nc >= cols) continue;
+                int n = nr * cols + nc;
+                if (dist[n] != DistanceField.UNREACHABLE || walls.isWall(nr, nc)) continue;
+                dist[n] = dist[u] + 1;
+                queue[tail++] = n;
+            }
+        }
+        return dist;
+    }
+}
@@ -0,0 +1,50 @@
+package car;
+
+import car.sim.RandomWalk;
+import car.sim.Simulation;
+import car.sim.TiledSimulation;
+
+/**
+ * 分块调度器（TiledSimulation）随线程数的扩展：4096x4096 的地图、10 万辆 RandomWalk 车，
+ * 每个 tick 每辆车都走一步（tickMillis 取 1000，车的间隔都是 1 个 tick），报告每秒车次和跨块交接的比例。
+ * 同样的车再用共享 agenda 的 Simulation 跑一遍作对照。
+ * 系统属性：bench.threads（逗号分隔，默认 1,2,4,8）、bench.tile（块边长，默认 256）、bench.ticks（默认 20）。
+ **/
+public class TileScalingBench {
+    private static final int SIZE = 4096;
+    private static final int CARS = 100_000;
+    private static final int TILE = Integer.getInteger("bench.tile", 256);
+    private static final int TICKS = Integer.getInteger("bench.ticks", 20);
+
+    public static void main(String[] args) throws Exception {
+        FieldMatrix field = new FieldMatrix(SIZE, SIZE);
+        BasicCarServer server = new BasicCarServer(field, new NoopListener());
+        server.setAllocationPolicy(FieldMatrix.AllocationPolicy.RANDOM_FREE);
+        java.util.List<Car> cars = server.createCars(CARS);
+
+        System.out.printf("%-40s %7s %16s %10s%n", "benchmark", "threads", "moves/s", "handoff%");
+        for (String s : System.getProperty("bench.threads", "1,2,4,8").split(",")) {
+            int threads = Integer.parseInt(s.trim());
+
+            TiledSimulation tiled = new TiledSimulation(field, TILE, threads, 1000);
+            for (Car car : cars) tiled.register(car, new RandomWalk());
+            tiled.runTicks(TICKS / 4);
+            long handoffs = tiled.getHandoffs();
+            long t0 = System.nanoTime();
+            long moves = tiled.runTicks(TICKS);
+            double seconds = (System.nanoTime() - t0) / 1e9;
+            System.out.printf("%-40s %7d %,16.0f %9.2f%%%n", "TiledSimulation tile=" + TILE, threads, moves / seconds,
+                    100.0 * (tiled.getHandoffs() - handoffs) / moves);
+            tiled.shutdown();
+
+            Simulation shared = new Simulation(threads, 1000);
+            for (Car car : cars) shared.register(car, new RandomWalk());
+            shared.runTicks(TICKS / 4);
+            t0 = System.nanoTime();
+            moves = shared.runTicks(TICKS);
+            seconds = (System.nanoTime() - t0) / 1e9;
+            System.out.printf("%-40s %7d %,16.0f %10s%n", "Simulation (shared agenda)", threads, moves / seconds, "-");
+            shared.shutdown();
+        }
+    }
+}
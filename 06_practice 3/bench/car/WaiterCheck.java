@@ -0,0 +1,176 @@
+package car;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static car.CarServer.Direction.*;
+
+/**
+ * 等格子（BasicCarServer.moveCarToWhenFree）的检查：
+ * 目标格因为车开走、车被销毁、拆墙空出来时等着的车都要被叫醒并走进去；超时、撞边界、等的车自己被销毁时返回 false；
+ * 四辆车在 2x2 里互相等成一圈时要被发现并放弃一辆，不能等到超时；
+ * 最后一张很挤的小地图上每辆车一个线程只用等待的方式乱走一段时间，结束后车不重不丢、没有车还挂在队列里。
+ * 用法：WaiterCheck [seconds]，不通过时以退出码 1 结束
+ **/
+public class WaiterCheck {
+    private static final long WAIT_MILLIS = 5000;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+        /* ===== 格子空出来：车开走 / 车被销毁 / 拆墙 ===== */
+        {
+            BasicCarServer server = new BasicCarServer(new FieldMatrix(1, 3), new NoopListener());
+            Car a = server.createCarNear(0, 0), b = server.createCarNear(0, 1);
+            FutureTask<Boolean> waiting = start(() -> server.moveCarToWhenFree(a, RIGHT, WAIT_MILLIS));
+            awaitWaiting(server, 1);
+            long start = System.nanoTime();
+            b.step(RIGHT);
+            check("woken when the car ahead moves", waiting.get() && a.getCol() == 1, start);
+        }
+        {
+            BasicCarServer server = new BasicCarServer(new FieldMatrix(1, 2), new NoopListener());
+            Car a = server.createCarNear(0, 0), b = server.createCarNear(0, 1);
+            FutureTask<Boolean> waiting = start(() -> server.moveCarToWhenFree(a, RIGHT, WAIT_MILLIS));
+            awaitWaiting(server, 1);
+            long start = System.nanoTime();
+            server.destroyCar(b);
+            check("woken when the car ahead is destroyed", waiting.get() && a.getCol() == 1, start);
+        }
+        {
+            FieldMatrix fm = new FieldMatrix(1, 2);
+            fm.addWall(0, 1);
+            BasicCarServer server = new BasicCarServer(fm, new NoopListener());
+            Car a = server.createCarNear(0, 0);
+            FutureTask<Boolean> waiting = start(() -> server.moveCarToWhenFree(a, RIGHT, WAIT_MILLIS));
+            awaitWaiting(server, 1);
+            long start = System.nanoTime();
+            server.changeWalls(null, new int[]{1});
+            check("woken when the wall is removed", waiting.get() && a.getCol() == 1, start);
+        }
+
+        /* ===== 不会空出来：超时、边界、等的车被销毁 ===== */
+        {
+            BasicCarServer server = new BasicCarServer(new FieldMatrix(1, 2), new NoopListener());
+            Car a = server.createCarNear(0, 0), b = server.createCarNear(0, 1);
+            long start = System.nanoTime();
+            boolean moved = server.moveCarToWhenFree(a, RIGHT, 200);
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            check("times out after about 200 ms", !moved && elapsed >= 150 && server.getWaitingCars() == 0, start);
+            start = System.nanoTime();
+            check("gives up at once at the boundary", !server.moveCarToWhenFree(a, LEFT, WAIT_MILLIS)
+                    && System.nanoTime() - start < WAIT_MILLIS * 1_000_000 / 10, start);
+            FutureTask<Boolean> waiting = start(() -> server.moveCarToWhenFree(a, RIGHT, WAIT_MILLIS));
+            awaitWaiting(server, 1);
+            start = System.nanoTime();
+            server.destroyCar(a);
+            check("returns when the waiting car is destroyed", !waiting.get()
+                    && System.nanoTime() - start < WAIT_MILLIS * 1_000_000 / 10
+                    && server.getWaitingCars() == 0 && b.getCol() == 1, start);
+        }
+
+        /* ===== 互相等成一圈：2x2 里四辆车顺时针等，下面一行空着给放弃的车让路 ===== */
+        {
+            BasicCarServer server = new BasicCarServer(new FieldMatrix(3, 2), new NoopListener());
+            Car[] ring = {server.createCarNear(0, 0), server.createCarNear(0, 1),
+                    server.createCarNear(1, 1), server.createCarNear(1, 0)};
+            CarServer.Direction[] along = {RIGHT, DOWN, LEFT, UP};
+            List<FutureTask<Boolean>> tasks = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < ring.length; i++) {
+                Car car = ring[i];
+                CarServer.Direction direction = along[i];
+                tasks.add(start(() -> server.moveCarToWhenFree(car, direction, WAIT_MILLIS)
+                        // 最后入环的车被放弃，往下让一步，其余三辆跟着转起来
+                        || car.getRow() == 1 && server.moveCarToWhenFree(car, DOWN, WAIT_MILLIS)));
+                awaitWaiting(server, i + 1 < ring.length ? i + 1 : 0);
+            }
+            int moved = 0;
+            for (FutureTask<Boolean> task : tasks) if (task.get()) moved++;
+            check("gridlock broken before the timeout (" + moved + " of 4 moved)", server.getGridlocksBroken() >= 1
+                    && moved == ring.length && System.nanoTime() - start < WAIT_MILLIS * 1_000_000 / 2
+                    && consistent(server, 3, 2), start);
+        }
+
+        /* ===== 挤满的小地图上只靠等待乱走 ===== */
+        {
+            int rows = 12, cols = 12;
+            BasicCarServer server = new BasicCarServer(new FieldMatrix(rows, cols), new NoopListener());
+            server.setAllocationPolicy(FieldMatrix.AllocationPolicy.RANDOM_FREE);
+            List<Car> cars = server.createCars(rows * cols * 2 / 3);
+            AtomicBoolean running = new AtomicBoolean(true);
+            List<Thread> threads = new ArrayList<>();
+            long[] moves = new long[cars.size()];
+            for (int i = 0; i < cars.size(); i++) {
+                Car car = cars.get(i);
+                int id = i;
+                Thread thread = new Thread(() -> {
+                    Random rnd = new Random(id);
+                    CarServer.Direction direction = DOWN;
+                    while (running.get()) {
+                        if (server.moveCarToWhenFree(car, direction, 50)) moves[id]++;
+                        else direction = CarServer.Direction.values()[rnd.nextInt(4)];
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            long start = System.nanoTime();
+            Thread.sleep(seconds * 1000L);
+            running.set(false);
+            for (Thread thread : threads) thread.join();
+            long total = 0;
+            for (long m : moves) total += m;
+            check("dense map: cars=" + cars.size() + " moves=" + total + " gridlocks=" + server.getGridlocksBroken(),
+                    total > 0 && server.getWaitingCars() == 0 && consistent(server, rows, cols), start);
+        }
+
+        if (failures != 0) {
+            System.out.println("FAILED: " + failures + " waiter check(s)");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static FutureTask<Boolean> start(Callable<Boolean> body) {
+        FutureTask<Boolean> task = new FutureTask<>(body);
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    // 等到有 n 辆车挂在队列上（n 为 0 时只给它们一点时间）；等不到也往下走，后面的检查会失败
+    private static void awaitWaiting(BasicCarServer server, int n) throws InterruptedException {
+        if (n == 0) {
+            Thread.sleep(20);
+            return;
+        }
+        for (int i = 0; i < 1000 && server.getWaitingCars() < n; i++) Thread.sleep(1);
+    }
+
+    // 每辆车都在自己记录的位置上、没有两辆车记在同一格、地图上的车格数等于车数
+    private static boolean consistent(BasicCarServer server, int rows, int cols) {
+        FieldSnapshot snapshot = server.fieldMatrix.snapshot();
+        BitSet seen = new BitSet(rows * cols);
+        int cars = 0;
+        for (Car car : server.getCars()) {
+            int cell = car.getRow() * cols + car.getCol();
+            if (seen.get(cell) || !snapshot.isCar(car.getRow(), car.getCol())) return false;
+            seen.set(cell);
+            cars++;
+        }
+        return snapshot.countCars() == cars;
+    }
+
+    private static void check(String name, boolean ok, long start) {
+        System.out.printf("%-60s %s (%.1f ms)%n", name, ok ? "ok" : "FAILED", (System.nanoTime() - start) / 1e6);
+        if (!ok) failures++;
+    }
+}
@@ -1,69 +1,379 @@
 package car;
 
+import car.metrics.CarMetrics;
+import car.util.CarExecutors;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class BasicCarServer implements CarServer {
     protected final FieldMatrix fieldMatrix;
-    protected final List<Car> cars;
+    protected final CarStore cars;
     protected final CarEventsListener carEventsListener;
+    private final CellWaiters cellWaiters = new CellWaiters();
+    // 建车、删车、走一步在 gate 里把格子和位置一起改；moveCars、checkpoint 关门，拿到格子和位置对得上的一刀
+    private final MoveGate gate = new MoveGate();
+    // 走一步和删车按车的槽位分条加锁：不锁 Car 句柄，用户代码锁住句柄也不会和服务器抢；
+    // 用 ReentrantLock 不用 synchronized，虚拟线程等锁时让出载体线程
+    private static final int CAR_STRIPES = 256;
+    private final ReentrantLock[] carLocks = new ReentrantLock[CAR_STRIPES];
+    private volatile FieldMatrix.AllocationPolicy allocationPolicy = FieldMatrix.AllocationPolicy.FIRST_FREE;
+    private volatile Executor behaviorExecutor = CarExecutors.platformThreads();
 
     protected BasicCarServer(FieldMatrix fieldMatrix, CarEventsListener carEventsListener){
-        cars = new ArrayList<>();
+        cars = new CarStore(this);
+        for (int i = 0; i < CAR_STRIPES; i++) carLocks[i] = new ReentrantLock();
         this.fieldMatrix = fieldMatrix;
         this.carEventsListener = carEventsListener;
     }
 
+    // 车的行为（CarMover 循环、Script.execute）用哪个 executor 跑，例如 CarExecutors.virtualThreads()
+    public void setBehaviorExecutor(Executor behaviorExecutor){
+        this.behaviorExecutor = behaviorExecutor;
+    }
+
+    public void runBehavior(Runnable behavior){
+        behaviorExecutor.execute(behavior);
+    }
+
+    public void setAllocationPolicy(FieldMatrix.AllocationPolicy allocationPolicy){
+        this.allocationPolicy = allocationPolicy;
+    }
+
     @Override
     public Car createCar() {
-        Position freeCell = fieldMatrix.occupyFirstFreeCellByCar();
-        Car car = new Car(this, freeCell);
-        cars.add(car);
+        Car car = addCar(allocationPolicy, -1, -1);
+        carEventsListener.carCreated(car);
+        return car;
+    }
+
+    // 在离 (row,col) 最近的空格上放车
+    public Car createCarNear(int row, int col) {
+        Car car = addCar(null, row, col);
         carEventsListener.carCreated(car);
         return car;
     }
 
+    @Override
+    public List<Car> createCars(int n) {
+        List<Car> created = new ArrayList<>(n);
+        FieldMatrix.AllocationPolicy policy = allocationPolicy;
+        for (int i = 0; i < n; i++) created.add(addCar(policy, -1, -1));
+        for (Car car : created) carEventsListener.carCreated(car);
+        return created;
+    }
+
+    // 占格子和建车在 gate 里一起做；policy 为 null 时放在离 (row,col) 最近的空格
+    private Car addCar(FieldMatrix.AllocationPolicy policy, int row, int col) {
+        int slot = gate.enter();
+        try {
+            Position p = policy != null ? fieldMatrix.occupyFreeCell(policy) : fieldMatrix.occupyFreeCellNear(row, col);
+            return cars.create(p.row, p.col);
+        } finally {
+            gate.leave(slot);
+        }
+    }
+
+    /* ===== 检查点（格式见 Checkpoint） ===== */
+    // 地图和所有车写进一个文件；读的时候短暂关上 gate，地图和车的位置是同一时刻的
+    public void checkpoint(Path file) throws IOException {
+        Checkpoint.write(fieldMatrix, cars, gate, file);
+    }
+
+    // 从检查点建一个新服务器，车的位置、颜色、名字、速度、车号都和写检查点时一样；
+    // 每辆恢复出来的车照常发 carCreated
+    public static BasicCarServer restore(Path file, CarEventsListener carEventsListener) throws IOException {
+        return Checkpoint.read(file, carEventsListener);
+    }
+
+    Car restoreCar(int index, int row, int col, int speed, int rgb, String name) {
+        Car car = cars.restore(index, row, col, speed, rgb, name);
+        carEventsListener.carCreated(car);
+        return car;
+    }
+
+    public int getCarCount() {
+        return cars.size();
+    }
+
+    // 当前所有车的拷贝
+    public List<Car> getCars() {
+        return cars.toList();
+    }
+
     @Override
     public void destroyCar(Car car) {
-        cars.remove(car);
+        boolean destroyed;
+        int slot = gate.enter();
+        try {
+            ReentrantLock lock = carLock(car);
+            lock.lock(); // 等这辆车正在走的一步走完（见 moveCarTo）
+            try {
+                destroyed = cars.destroy(car);
+                if (destroyed) fieldMatrix.releaseCell(car.getRow(), car.getCol()); // 车没了，格子还回去
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            gate.leave(slot);
+        }
+        if (destroyed) {
+            int cell = cellOf(car.getPackedPosition());
+            cellWaiters.abandon(car, cell);
+            cellWaiters.vacated(cell);
+        }
         carEventsListener.carDestroyed(car);
     }
 
+    // 走格子和改车的位置在车的槽位锁里做，和 destroyCar 互斥：不会放掉旧格子漏掉新格子，也不会写进已经给新车的槽位。
+    // 槽位锁里不通知监听者：阻塞的订阅者（CarEventBus BLOCK）会在锁里挂起，同一条锁上的别的车跟着等
     @Override
     public boolean moveCarTo(Car car, Direction direction) {
-        Position from = car.getPosition();
-        Position to = from.move(direction);
-        boolean ret = fieldMatrix.moveCarTo(from.row, from.col, to.row, to.col);
-        carEventsListener.carMoved(car,from,to,ret);
+        long from, to;
+        boolean ret;
+        boolean timed = CarMetrics.enabled();
+        long start = timed ? System.nanoTime() : 0;
+        int slot = gate.enter();
+        try {
+            ReentrantLock lock = carLock(car);
+            lock.lock();
+            try {
+                if (car.isDestroyed()) return false; // 销毁后原来的格子可能已经是别的车
+                from = car.getPackedPosition();
+                to = Position.move(from, direction, 1);
+                ret = fieldMatrix.moveCarTo(from, direction);
+                if (ret) car.moveBy(direction, 1);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            gate.leave(slot);
+        }
+        if (ret) cellWaiters.vacated(cellOf(from));
+        if (timed) start = recordMove(to, ret ? 1 : 0, start);
+        carEventsListener.carMoved(car, from, to, ret);
+        if (timed) CarMetrics.listenerDispatch(System.nanoTime() - start);
         return ret;
     }
 
+    // 整段路径一次预留，只发一个从起点到终点的移动事件
+    @Override
+    public int moveCarAlong(Car car, Direction direction, int n) {
+        long from;
+        int k;
+        boolean timed = CarMetrics.enabled();
+        long start = timed ? System.nanoTime() : 0;
+        int slot = gate.enter();
+        try {
+            ReentrantLock lock = carLock(car);
+            lock.lock();
+            try {
+                if (car.isDestroyed()) return 0;
+                from = car.getPackedPosition();
+                k = fieldMatrix.moveCarAlong(from, direction, n);
+                if (k > 0) car.moveBy(direction, k);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            gate.leave(slot);
+        }
+        if (k > 0) cellWaiters.vacated(cellOf(from));
+        if (timed) start = recordMove(Position.move(from, direction, 1), k, start);
+        carEventsListener.carMoved(car, from, Position.move(from, direction, Math.max(k, 1)), k > 0);
+        if (timed) CarMetrics.listenerDispatch(System.nanoTime() - start);
+        return k;
+    }
+
+    /* ===== 一步里很多车一起走（裁决规则见 FieldMatrix.moveCars） ===== */
+    // 排成一串的车同时前进、围成一圈的一起转，整批原子地落到格子上；每辆车照常发一个移动事件。
+    // 同一辆车不能出现两次；整批在 gate 关着时做，别的线程的单步、建车、删车等它做完
+    @Override
+    public boolean[] moveCars(Car[] cars, Direction[] directions) {
+        int n = cars.length;
+        if (directions.length != n) throw new IllegalArgumentException("cars/directions length mismatch");
+        long[] from = new long[n], to = new long[n];
+        int[] fromCells = new int[n], toCells = new int[n], intentOf = new int[n];
+        boolean[] moved = new boolean[n];
+        boolean timed = CarMetrics.enabled();
+        long start = timed ? System.nanoTime() : 0;
+        gate.close();
+        try {
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                intentOf[i] = -1;
+                if (directions[i] == null || cars[i].isDestroyed()) continue;
+                from[i] = cars[i].getPackedPosition();
+                to[i] = Position.move(from[i], directions[i], 1);
+                int row = Position.rowOf(to[i]), col = Position.colOf(to[i]);
+                if (row < 0 || row >= fieldMatrix.rows || col < 0 || col >= fieldMatrix.cols) continue;
+                fromCells[m] = cellOf(from[i]);
+                toCells[m] = cellOf(to[i]);
+                intentOf[i] = m++;
+            }
+            boolean[] done = fieldMatrix.moveCars(Arrays.copyOf(fromCells, m), Arrays.copyOf(toCells, m));
+            for (int i = 0; i < n; i++) {
+                if (intentOf[i] < 0 || !done[intentOf[i]]) continue;
+                moved[i] = true;
+                cars[i].moveBy(directions[i], 1);
+            }
+            if (cellWaiters.getWaiting() > 0) vacatedByGroup(fromCells, toCells, done);
+        } finally {
+            gate.open();
+        }
+        for (int i = 0; i < n; i++) {
+            if (directions[i] == null || cars[i].isDestroyed()) continue;
+            if (timed) recordMove(Position.move(from[i], directions[i], 1), moved[i] ? 1 : 0, start);
+            carEventsListener.carMoved(cars[i], from[i], to[i], moved[i]);
+        }
+        return moved;
+    }
+
+    // 整批里真正空出来的格子：走成的车的起点，且没有别的车走进来（链尾）
+    private void vacatedByGroup(int[] fromCells, int[] toCells, boolean[] done) {
+        Set<Integer> entered = new HashSet<>();
+        for (int k = 0; k < done.length; k++) if (done[k]) entered.add(toCells[k]);
+        for (int k = 0; k < done.length; k++)
+            if (done[k] && !entered.contains(fromCells[k])) cellWaiters.vacated(fromCells[k]);
+    }
+
+    /* ===== 等格子空出来 ===== */
+    // 目标格有车或墙时不马上失败：挂在这个格子的等待队列上，格子一空（车开走、车被销毁、拆墙）就被叫醒再走，
+    // 最多等 timeoutMillis。发现和别的车互相等成一圈时立即返回 false，让调用方换方向
+    @Override
+    public boolean moveCarToWhenFree(Car car, Direction direction, long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            if (car.step(direction)) return true;
+            if (car.isDestroyed()) return false;
+            long from = car.getPackedPosition(), to = Position.move(from, direction, 1);
+            int row = Position.rowOf(to), col = Position.colOf(to);
+            if (row < 0 || row >= fieldMatrix.rows || col < 0 || col >= fieldMatrix.cols) return false; // 边界不会空出来
+            if (System.nanoTime() - deadline >= 0) return false;
+            CellWaiters.Waiter waiter = cellWaiters.add(car, cellOf(from), cellOf(to));
+            try {
+                if (cellWaiters.closesCycle(waiter)) return false;
+                // 登记之后再看一眼：登记前刚空出来的格子没人会来叫
+                if (fieldMatrix.getCellState(row, col) != FieldMatrix.CellState.EMPTY
+                        && !cellWaiters.park(waiter, deadline)) return false;
+            } finally {
+                cellWaiters.remove(waiter);
+            }
+        }
+    }
+
+    // 正在等格子的车数
+    public int getWaitingCars() {
+        return cellWaiters.getWaiting();
+    }
+
+    // 因为互相等成一圈而放弃等待的次数
+    public long getGridlocksBroken() {
+        return cellWaiters.getGridlocks();
+    }
+
+    private int cellOf(long position) {
+        return Position.rowOf(position) * fieldMatrix.cols + Position.colOf(position);
+    }
+
+    // 销毁后句柄的槽位不变，删车和还拿着旧句柄走的一步仍落在同一条锁上
+    private ReentrantLock carLock(Car car) {
+        return carLocks[car.slot & (CAR_STRIPES - 1)];
+    }
+
+    // 指标：记一次移动的耗时，没走成时看第一步的格子是车还是墙/边界；返回当前时间给下一段计时用
+    private long recordMove(long firstStep, int cells, long start) {
+        long now = System.nanoTime();
+        CarMetrics.move(cells, now - start);
+        if (cells == 0) {
+            int row = Position.rowOf(firstStep), col = Position.colOf(firstStep);
+            boolean inside = row >= 0 && row < fieldMatrix.rows && col >= 0 && col < fieldMatrix.cols;
+            if (inside && fieldMatrix.getCellState(row, col) == FieldMatrix.CellState.CAR)
+                CarMetrics.collision();
+            else
+                CarMetrics.wallHit();
+        }
+        return now;
+    }
+
+    @Override
+    public void carChanged(Car car) {
+        carEventsListener.carChanged(car);
+    }
+
+    /* ===== 墙 ===== */
+    // 一批加墙/拆墙一次提交（见 FieldMatrix.changeWalls），监听者收到一个列出具体格子的增量
+    public WallDelta changeWalls(int[] add, int[] remove) {
+        WallDelta delta = fieldMatrix.changeWalls(add, remove);
+        for (int cell : delta.getRemoved()) cellWaiters.vacated(cell);
+        if (!delta.isEmpty()) carEventsListener.wallsChanged(delta);
+        return delta;
+    }
+
+    // 原来的节奏：整张地图一个随机器，平均每秒一两处变化
     public Runnable wallTask(){
-        return new WallRandomizer();
+        return new WallRandomizer(0, fieldMatrix.rows, 1.5);
     }
 
+    // 按地图大小伸缩：每格每秒平均变化 churnPerCell 次，行切成 regions 段，每段一个随机器（各自一个线程跑）
+    public List<Runnable> wallTasks(int regions, double churnPerCell) {
+        regions = Math.max(1, Math.min(regions, fieldMatrix.rows));
+        List<Runnable> tasks = new ArrayList<>(regions);
+        for (int i = 0; i < regions; i++) {
+            int rowFrom = (int) ((long) fieldMatrix.rows * i / regions);
+            int rowTo = (int) ((long) fieldMatrix.rows * (i + 1) / regions);
+            tasks.add(new WallRandomizer(rowFrom, rowTo, churnPerCell * (rowTo - rowFrom) * fieldMatrix.cols));
+        }
+        return tasks;
+    }
+
+    // 随机加墙/拆墙，只动 [rowFrom, rowTo) 这几行；每 TICK_MILLIS 攒够这段时间该有的变化数，整批提交一次
     private class WallRandomizer implements Runnable{
+        private static final int TICK_MILLIS = 100;
+        private static final int PROBES = 20; // 每处变化最多试几个随机格子
         private final java.util.Random rnd = new java.util.Random();
+        private final int rowFrom, rowTo;
+        private final double changesPerTick;
+
+        WallRandomizer(int rowFrom, int rowTo, double changesPerSecond){
+            this.rowFrom = rowFrom;
+            this.rowTo = rowTo;
+            this.changesPerTick = changesPerSecond * TICK_MILLIS / 1000;
+        }
+
         @Override
         public void run(){
+            double budget = 0;
             while(true){
-                try{ Thread.sleep(300 + rnd.nextInt(700)); }catch(InterruptedException e){ break; }
-                if (rnd.nextBoolean()){
-                    // 尝试在空格子加墙（不会覆盖车，因为 addWall 只允许 EMPTY->WALL）
-                    for (int t=0; t<20; t++){
-                        int r = rnd.nextInt(fieldMatrix.rows);
-                        int c = rnd.nextInt(fieldMatrix.cols);
-                        if (fieldMatrix.addWall(r,c)) break;
-                    }
-                }else{
-                    // 尝试随机拆墙
-                    for (int t=0; t<20; t++){
-                        int r = rnd.nextInt(fieldMatrix.rows);
+                try{ Thread.sleep(TICK_MILLIS); }catch(InterruptedException e){ break; }
+                budget += changesPerTick;
+                int n = (int) budget;
+                if (n == 0) continue;
+                budget -= n;
+                int[] add = new int[n], remove = new int[n];
+                int na = 0, nr = 0;
+                for (int i = 0; i < n; i++) {
+                    // 加墙只挑空格（不会覆盖车），拆墙只挑墙；真正改的时候还会再按状态 CAS 一次
+                    boolean adding = rnd.nextBoolean();
+                    FieldMatrix.CellState wanted = adding ? FieldMatrix.CellState.EMPTY : FieldMatrix.CellState.WALL;
+                    for (int t=0; t<PROBES; t++){
+                        int r = rowFrom + rnd.nextInt(rowTo - rowFrom);
                         int c = rnd.nextInt(fieldMatrix.cols);
-                        if (fieldMatrix.removeWall(r,c)) break;
+                        if (fieldMatrix.getCellState(r, c) != wanted) continue;
+                        if (adding) add[na++] = r * fieldMatrix.cols + c;
+                        else remove[nr++] = r * fieldMatrix.cols + c;
+                        break;
                     }
                 }
-                carEventsListener.fieldChanged();
+                changeWalls(Arrays.copyOf(add, na), Arrays.copyOf(remove, nr));
             }
         }
     }
@@ -0,0 +1,145 @@
+package car;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 二进制地图格式：16 字节头（魔数 "CARF"、版本、rows、cols，都是大端 int），
+ * 后面是墙的位平面，每格 1 bit、按 r*cols+c 排，64 格一个大端 long，1 = 墙。
+ * map() 用 FileChannel.map 映射文件，FieldMatrix 第一次碰到某一块时才从映射里展开那一块的墙，
+ * 所以打开地图的时间和地图大小无关。
+ * 命令行：java car.BinaryField field.txt field.bin 把文本地图转成二进制。
+ **/
+public class BinaryField {
+    static final int MAGIC = 0x43415246; // "CARF"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("usage: BinaryField <field.txt> <field.bin>");
+            return;
+        }
+        try (Reader in = Files.newBufferedReader(Paths.get(args[0]))) {
+            convert(in, Paths.get(args[1]));
+        }
+    }
+
+    /* ===== 打开：映射文件，墙按块懒加载 ===== */
+    public static FieldMatrix map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) { }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC)
+                throw new IOException("Not a binary field file: " + file);
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("Unsupported field file version " + version + ": " + file);
+            int rows = header.getInt(), cols = header.getInt();
+            if (rows < 0 || cols < 0 || (long) rows * cols > Integer.MAX_VALUE)
+                throw new IOException("Bad field size " + rows + "x" + cols + ": " + file);
+            long planeBytes = planeLongs((long) rows * cols) * 8;
+            if (channel.size() < HEADER_BYTES + planeBytes) throw new IOException("Truncated field file: " + file);
+            // 映射在 channel 关闭后依然有效；真正读盘发生在各块第一次被访问时
+            LongBuffer plane = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, planeBytes).asLongBuffer();
+            return new FieldMatrix(rows, cols, new Plane(plane));
+        }
+    }
+
+    /* ===== 写：从文本转换 / 从 FieldMatrix 保存，只存墙 ===== */
+    // 文本格式同 FieldMatrix.load：第一行 "rows cols"，之后每行一行格子，'*' 是墙；边读边写，不在内存里建整张图
+    public static void convert(Reader text, Path out) throws IOException {
+        BufferedReader in = text instanceof BufferedReader ? (BufferedReader) text : new BufferedReader(text);
+        String first = in.readLine();
+        String[] size = first == null ? new String[0] : first.trim().split("\\s+");
+        if (size.length < 2) throw new IOException("Missing 'rows cols' header");
+        int rows = Integer.parseInt(size[0]), cols = Integer.parseInt(size[1]);
+        try (PlaneWriter writer = new PlaneWriter(out, rows, cols)) {
+            for (int r = 0; r < rows; r++) {
+                String line = in.readLine();
+                int n = line == null ? 0 : Math.min(cols, line.length());
+                for (int c = 0; c < cols; c++) writer.add(c < n && line.charAt(c) == '*');
+            }
+        }
+    }
+
+    public static void save(FieldMatrix field, Path out) throws IOException {
+        FieldSnapshot snapshot = field.snapshot();
+        int cells = field.rows * field.cols;
+        try (PlaneWriter writer = new PlaneWriter(out, field.rows, field.cols)) {
+            for (int cell = 0; cell < cells; cell++)
+                writer.add(FieldMatrix.stateIn(snapshot.words[cell >>> FieldMatrix.CELLS_PER_WORD_SHIFT], cell) == FieldMatrix.WALL);
+        }
+    }
+
+    private static long planeLongs(long cells){
+        return (cells + 63) >>> 6;
+    }
+
+    // 按格子顺序逐位写位平面
+    private static class PlaneWriter implements AutoCloseable {
+        private final DataOutputStream out;
+        private long bits;
+        private int filled;
+
+        PlaneWriter(Path file, int rows, int cols) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows);
+            out.writeInt(cols);
+        }
+
+        void add(boolean wall) throws IOException {
+            if (wall) bits |= 1L << filled;
+            if (++filled == 64) flush();
+        }
+
+        private void flush() throws IOException {
+            out.writeLong(bits);
+            bits = 0;
+            filled = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (filled > 0) flush();
+            out.close();
+        }
+    }
+
+    /* ===== 映射出来的墙位平面，FieldMatrix 懒加载时读 ===== */
+    static class Plane {
+        private final LongBuffer bits;
+
+        Plane(LongBuffer bits){
+            this.bits = bits;
+        }
+
+        // FieldMatrix 第 w 个 word（16 格）里的墙，展开成每格 2 bit 的 WALL
+        int wallWord(int w){
+            int cell = w << FieldMatrix.CELLS_PER_WORD_SHIFT;
+            int walls = (int) (bits.get(cell >>> 6) >>> (cell & 63)) & 0xFFFF;
+            return spread(walls) << 1;
+        }
+
+        // 16 bit 拉开成 32 bit：第 i 位放到第 2i 位
+        private static int spread(int b){
+            b = (b | (b << 8)) & 0x00FF00FF;
+            b = (b | (b << 4)) & 0x0F0F0F0F;
+            b = (b | (b << 2)) & 0x33333333;
+            b = (b | (b << 1)) & 0x55555555;
+            return b;
+        }
+    }
+}
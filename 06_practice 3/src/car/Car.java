@@ -1,52 +1,124 @@
 package car;
 
 import java.awt.*;
-import java.util.Random;
 
+// 车的状态存在 CarStore 的列里，Car 只是 (store, slot) 的句柄；车号跟着句柄走
 public class Car {
-    private final CarServer carServer;
+    final CarStore store;
+    final int slot;
+    private final int index;
+    // 销毁时的最终状态；槽位之后会给新车用，销毁后的句柄只读这里
+    private volatile Detached detached;
 
-    private Position position;
-    private static int count = 1;
-    private int index;
-    private int speed = 500;
-    private Color color;
-    private String name;
-
-    public Car(CarServer carServer, Position position){
-        this.carServer = carServer;
-        this.position = position;
-        speed = new Random().nextInt(300) + 300;
-        index = count++;
-        color = new Color((int)(Math.random() * 0x1000000));
+    Car(CarStore store, int slot, int index){
+        this.store = store;
+        this.slot = slot;
+        this.index = index;
     }
 
     public void setColor(Color color){
-        this.color = color;
+        if (detached == null) store.setRgb(slot, color.getRGB());
+        store.server.carChanged(this);
     }
 
-    public Color getColor(){return color;}
-    public String getName(){return name;}
-    public void setName(String name){this.name = name;}
+    public Color getColor(){return new Color(getRGB(), true);}
+    public String getName(){
+        String name = store.name(slot);
+        Detached d = detached;
+        return d == null ? name : d.name;
+    }
+    public void setName(String name){
+        store.setName(this, name);
+        store.server.carChanged(this);
+    }
 
     public void destroy(){
-        carServer.destroyCar(this);
+        store.server.destroyCar(this);
     }
 
     public boolean moveTo(CarServer.Direction direction){
+        pause(getSpeed());
+        return step(direction);
+    }
+
+    // 和 moveTo 一样先等 speed，但前面被挡住时不马上失败，等格子空出来再走，最多等 timeoutMillis
+    public boolean moveToWhenFree(CarServer.Direction direction, long timeoutMillis){
+        pause(getSpeed());
+        return store.server.moveCarToWhenFree(this, direction, timeoutMillis);
+    }
+
+    // 沿 direction 连走 n 步，返回实际走的步数；整段一次交给服务器，走完按步数等待
+    public int moveAlong(CarServer.Direction direction, int n){
+        int moved = 0;
+        while (moved < n) {
+            int k = store.server.moveCarAlong(this, direction, n - moved);
+            if (k == 0) break;
+            moved += k;
+            pause((long) getSpeed() * k);
+        }
+        return moved;
+    }
+
+    private static void pause(long millis){
         try {
-            Thread.sleep(speed);
+            Thread.sleep(millis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        if (carServer.moveCarTo(this,direction)){
-            position = position.move(direction);
-            return true;
-        }else
-            return false;
+    }
+
+    // 不等待，直接走一步（调度器按 tick 驱动时用）；格子和位置由服务器一起改
+    public boolean step(CarServer.Direction direction){
+        return store.server.moveCarTo(this, direction);
+    }
 
+    // 服务器已经在格子上挪好了，车跟上。调用方锁着句柄（BasicCarServer.moveCarTo）或者关着 gate（moveCars）
+    void moveBy(CarServer.Direction direction, int n){
+        if (detached != null) return;
+        store.setPosition(slot, Position.move(store.position(slot), direction, n));
+    }
+
+    public int getSpeed(){
+        int speed = store.speed(slot);
+        Detached d = detached;
+        return d == null ? speed : d.speed;
+    }
+    public int getRGB(){
+        int rgb = store.rgb(slot);
+        Detached d = detached;
+        return d == null ? rgb : d.rgb;
+    }
+    // 每次新建一个 Position；热点路径用 getPackedPosition / getRow / getCol
+    public Position getPosition(){return Position.of(getPackedPosition());}
+    public int getRow(){return Position.rowOf(getPackedPosition());}
+    public int getCol(){return Position.colOf(getPackedPosition());}
+
+    // 行列按 Position.pack 打包，一次读出，不会读到一半新一半旧
+    public long getPackedPosition(){
+        long p = store.position(slot);
+        Detached d = detached;
+        return d == null ? p : d.position;
     }
-    public Position getPosition(){return position;}
 
     public int getIndex(){return index;}
+
+    boolean isDestroyed(){return detached != null;}
+
+    void detach(long position, int speed, int rgb, String name){
+        detached = new Detached(position, speed, rgb, name);
+    }
+
+    private static final class Detached {
+        final long position;
+        final int speed;
+        final int rgb;
+        final String name;
+
+        Detached(long position, int speed, int rgb, String name){
+            this.position = position;
+            this.speed = speed;
+            this.rgb = rgb;
+            this.name = name;
+        }
+    }
 }
@@ -4,5 +4,14 @@ public interface CarEventsListener {
     void carCreated(Car car);
     void carDestroyed(Car car);
     void carMoved(Car car, Position from, Position to, boolean success);
+    // 服务器实际调用的是这个：坐标是 Position.pack 打包的，不分配对象。
+    // 热点路径上的监听者覆盖它；默认拆成 Position 转给上面的老接口
+    default void carMoved(Car car, long from, long to, boolean success) {
+        carMoved(car, Position.of(from), Position.of(to), success);
+    }
+    // 颜色、名字等外观变了（没有移动）
+    default void carChanged(Car car) {}
     default void fieldChanged() {}
+    // 一批墙变化，delta 列出具体格子；不关心细节的监听者照旧当成 fieldChanged 整体刷新
+    default void wallsChanged(WallDelta delta) { fieldChanged(); }
 }
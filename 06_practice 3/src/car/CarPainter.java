@@ -1,8 +1,18 @@
 package car;
 
+import car.metrics.CarMetrics;
+
 import javax.swing.*;
 import java.awt.*;
-import java.util.ArrayList;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static javax.swing.WindowConstants.EXIT_ON_CLOSE;
 
@@ -11,90 +21,535 @@ public class CarPainter extends JPanel implements CarEventsListener {
     private final FieldMatrix fieldMatrix;
     private final static int defaultCellSize = 50;
     private final static int minGap = 20;
+    private final static int defaultMaxFps = 60;
+    private final static int maxWindowSize = 900;
+    // 缩放范围（像素/格）；格子小于 lodCellSize 像素时改画密度热力图
+    private final static double minScale = 1.0 / 64, maxScale = 100;
+    private final static double lodCellSize = 4;
+    private final static int nameCellSize = 20;
+    // 热力图的降采样块：最细一级 BLOCK x BLOCK 个格子一块，往上每级边长翻倍；
+    // 最粗一级在 minScale 时正好一块一像素，所以画的时候每个像素只查一块
+    private final static int BLOCK_SHIFT = 4, BLOCK = 1 << BLOCK_SHIFT, LEVELS = 3;
+
+    // 每格当前停着哪辆车，按事件里的 from/to 维护：按最细一级的块分桶，只有块里有车时才有桶，
+    // 车都走了桶就扔掉，内存跟车数走而不是跟格子数走。桶在分条锁里改和读，画的时候只看可见区里的块
+    private final static int OCCUPANT_STRIPES = 64;
+    private final Occupants[] occupants;
+    private final ReentrantLock[] occupantLocks = new ReentrantLock[OCCUPANT_STRIPES];
+    // 画格子时一块一块拷出来再画，不在锁里调车的 getter；只在 EDT 上用
+    private int[] paintCells = new int[16];
+    private Car[] paintCars = new Car[16];
+    // 每级每块里的车数 / 墙数，随事件增量维护；低倍率时按当前倍率选一级直接画热力图
+    private final AtomicIntegerArray[] carsPerBlock = new AtomicIntegerArray[LEVELS];
+    private final int[][] wallsPerBlock = new int[LEVELS][];
+    private final int[] blockCols = new int[LEVELS];
+    // 热力图每一列像素对应的块列（-1 表示地图外），每帧按可见区宽度重填，缓冲区复用
+    private int[] heatCols = new int[0];
+    // 上一帧之后变过的格子（1 bit/格），帧定时器把它们换成 repaint(rect)
+    private final AtomicLongArray dirtyCells;
+    private final AtomicBoolean anyDirty = new AtomicBoolean();
+    private final AtomicBoolean fullRepaint = new AtomicBoolean(true);
+    private volatile boolean wallsChanged = true;
+    private volatile boolean blockWallsStale = true;
+    // 块计数 / 离屏图层读墙时的墙版本：WallDelta.version 不超过它的增量已经在读到的墙里，不能再加一次
+    private long countedWallVersion, drawnWallVersion;
+    // 墙的增量：事件线程只排队，EDT 画之前按顺序应用到块计数和离屏图层上，不用整张重扫
+    private final ConcurrentLinkedQueue<WallDelta> wallDeltas = new ConcurrentLinkedQueue<>();
 
-    //private final java.util.List<Car> cars;
-    private final java.util.concurrent.CopyOnWriteArrayList<Car> cars = new java.util.concurrent.CopyOnWriteArrayList<>();
+    // 墙和网格画在离屏图层上，只覆盖当前可见区域；滚动、缩放、墙变了才重画
+    private BufferedImage background;
+    private final Rectangle backgroundArea = new Rectangle();
+    private double backgroundScale;
+    private double scale;
+
+    private final Timer frameTimer;
 
     public CarPainter(FieldMatrix fieldMatrix) {
         super();
-        //cars = new ArrayList<>();
         this.fieldMatrix = fieldMatrix;
+        int cells = fieldMatrix.rows * fieldMatrix.cols;
+        for (int level = 0; level < LEVELS; level++) {
+            int side = BLOCK << level;
+            int blockRows = (fieldMatrix.rows + side - 1) / side;
+            blockCols[level] = (fieldMatrix.cols + side - 1) / side;
+            carsPerBlock[level] = new AtomicIntegerArray(blockRows * blockCols[level]);
+            wallsPerBlock[level] = new int[blockRows * blockCols[level]];
+        }
+        this.occupants = new Occupants[wallsPerBlock[0].length];
+        for (int i = 0; i < OCCUPANT_STRIPES; i++) occupantLocks[i] = new ReentrantLock();
+        this.dirtyCells = new AtomicLongArray((cells + 63) >>> 6);
+        this.scale = Math.max(minScale, Math.min(defaultCellSize,
+                Math.min((double) maxWindowSize / Math.max(1, fieldMatrix.cols),
+                        (double) maxWindowSize / Math.max(1, fieldMatrix.rows))));
+        this.frameTimer = new Timer(1000 / defaultMaxFps, e -> flushDirty());
+        frameTimer.setCoalesce(true);
+        frameTimer.start();
+
         JFrame f = new JFrame("Cars");
         setBackground(Color.LIGHT_GRAY);
-        f.setSize(fieldMatrix.cols * defaultCellSize + 2 * minGap,
-                fieldMatrix.rows * defaultCellSize + 2 * minGap);
-        f.add(this);
+        JScrollPane scrollPane = new JScrollPane(this);
+        scrollPane.setWheelScrollingEnabled(true);
+        scrollPane.addMouseWheelListener(this::zoom);
+        f.setSize(Math.min(maxWindowSize, (int) (fieldMatrix.cols * scale)) + 2 * minGap + 20,
+                Math.min(maxWindowSize, (int) (fieldMatrix.rows * scale)) + 2 * minGap + 40);
+        f.add(scrollPane);
         f.setDefaultCloseOperation(EXIT_ON_CLOSE);
         f.setVisible(true);
     }
 
+    // 重画频率上限：多次移动合并到一帧里
+    public void setMaxFps(int fps) {
+        frameTimer.setDelay(Math.max(1, 1000 / Math.max(1, fps)));
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension((int) Math.ceil(fieldMatrix.cols * scale) + 2 * minGap,
+                (int) Math.ceil(fieldMatrix.rows * scale) + 2 * minGap);
+    }
+
+    /* ===== 缩放：Ctrl+滚轮，鼠标下的格子保持不动 ===== */
+    private void zoom(MouseWheelEvent e) {
+        if (!e.isControlDown()) return;
+        e.consume();
+        JViewport viewport = (JViewport) getParent();
+        Point mouse = SwingUtilities.convertPoint(e.getComponent(), e.getPoint(), this);
+        double col = (mouse.x - minGap) / scale, row = (mouse.y - minGap) / scale;
+        Point view = viewport.getViewPosition();
+        int offsetX = mouse.x - view.x, offsetY = mouse.y - view.y;
+
+        double newScale = scale * (e.getWheelRotation() < 0 ? 2 : 0.5);
+        scale = Math.max(minScale, Math.min(maxScale, newScale));
+        wallsChanged = true;
+        revalidate();
+        SwingUtilities.invokeLater(() -> {
+            int x = (int) (minGap + col * scale) - offsetX;
+            int y = (int) (minGap + row * scale) - offsetY;
+            Dimension size = getPreferredSize(), extent = viewport.getExtentSize();
+            viewport.setViewPosition(new Point(Math.max(0, Math.min(x, size.width - extent.width)),
+                    Math.max(0, Math.min(y, size.height - extent.height))));
+            repaint();
+        });
+    }
+
+    private boolean heatmapMode() {
+        return scale < lodCellSize;
+    }
+
+    private int cellX(int col) { return minGap + (int) (col * scale); }
+    private int cellY(int row) { return minGap + (int) (row * scale); }
+
+    // 可见区里第一个/最后一个格子（闭区间）
+    private int firstCol(int x) { return Math.max(0, (int) ((x - minGap) / scale)); }
+    private int firstRow(int y) { return Math.max(0, (int) ((y - minGap) / scale)); }
+    private int lastCol(int x) { return Math.min(fieldMatrix.cols - 1, (int) ((x - minGap) / scale)); }
+    private int lastRow(int y) { return Math.min(fieldMatrix.rows - 1, (int) ((y - minGap) / scale)); }
+
+    private void paintBackground(Rectangle area) {
+        int width = Math.max(1, area.width), height = Math.max(1, area.height);
+        if (background == null || background.getWidth() != width || background.getHeight() != height)
+            background = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        backgroundArea.setBounds(area.x, area.y, width, height);
+        backgroundScale = scale;
+        Graphics g = background.getGraphics();
+        try {
+            g.translate(-area.x, -area.y);
+            g.setColor(getBackground());
+            g.fillRect(area.x, area.y, width, height);
+            int c0 = firstCol(area.x), c1 = lastCol(area.x + width);
+            int r0 = firstRow(area.y), r1 = lastRow(area.y + height);
+            int step = (int) Math.ceil(scale);
+
+            g.setColor(Color.BLACK);
+            // Drawing vertical lines
+            for (int i = c0; i <= c1 + 1; i++) {
+                g.drawLine(cellX(i), cellY(r0), cellX(i), cellY(r1 + 1));
+            }
+            // Drawing horizontal lines
+            for (int i = r0; i <= r1 + 1; i++) {
+                g.drawLine(cellX(c0), cellY(i), cellX(c1 + 1), cellY(i));
+            }
+
+            // 只读可见区里的墙；映射地图上看不到的块不会因为画图被展开
+            g.setColor(Color.RED);
+            drawnWallVersion = fieldMatrix.forEachWall(r0, c0, r1, c1, cell ->
+                    g.fill3DRect(cellX(cell % fieldMatrix.cols), cellY(cell / fieldMatrix.cols), step, step, false));
+        } finally {
+            g.dispose();
+        }
+    }
+
     @Override
     public void paintComponent(Graphics g) {
+        boolean timed = CarMetrics.enabled();
+        long start = timed ? System.nanoTime() : 0;
+        try {
+            paintVisible(g);
+        } finally {
+            if (timed) CarMetrics.repaint(System.nanoTime() - start);
+        }
+    }
+
+    private void paintVisible(Graphics g) {
+        applyWallDeltas();
         super.paintComponent(g);
-        int screenWidth = getWidth();
-        int screenHeight = getHeight();
+        Rectangle visible = getVisibleRect();
+        if (visible.isEmpty()) return;
+        if (heatmapMode()) {
+            paintHeatmap(g, visible);
+            return;
+        }
+        if (wallsChanged || backgroundScale != scale || !backgroundArea.contains(visible)) {
+            wallsChanged = false;
+            paintBackground(visible);
+        }
+        g.drawImage(background, backgroundArea.x, backgroundArea.y, null);
+
+        Rectangle clip = g.getClipBounds();
+        clip = clip == null ? visible : clip.intersection(visible);
+        int c0 = firstCol(clip.x), c1 = lastCol(clip.x + clip.width);
+        int r0 = firstRow(clip.y), r1 = lastRow(clip.y + clip.height);
+        int step = (int) Math.ceil(scale);
+
         FontMetrics fm = g.getFontMetrics();
+        for (int br = r0 >> BLOCK_SHIFT; br <= r1 >> BLOCK_SHIFT; br++) {
+            for (int bc = c0 >> BLOCK_SHIFT; bc <= c1 >> BLOCK_SHIFT; bc++) {
+                int n = copyOccupants(br * blockCols[0] + bc);
+                for (int i = 0; i < n; i++) {
+                    int row = paintCells[i] / fieldMatrix.cols, col = paintCells[i] % fieldMatrix.cols;
+                    if (row < r0 || row > r1 || col < c0 || col > c1) continue;
+                    Car car = paintCars[i];
+                    g.setColor(car.getColor());
+                    g.fill3DRect(cellX(col), cellY(row), step, step, false);
+                    if (car.getName() != null && scale >= nameCellSize) {
+                        int stringWidth = fm.stringWidth(car.getName());
+                        g.setColor(Color.WHITE);
+                        g.drawString(car.getName(), cellX(col) + (step - stringWidth) / 2,
+                                cellY(row) + step / 2);
+                    }
+                }
+                Arrays.fill(paintCars, 0, n, null);
+            }
+        }
+    }
+
+    /* ===== 低倍率：每个像素只查一块，开销只跟可见像素数有关，和地图大小、可见格子数无关 ===== */
+    private void paintHeatmap(Graphics g, Rectangle visible) {
+        if (blockWallsStale) {
+            blockWallsStale = false;
+            countBlockWalls();
+        }
+        int width = visible.width, height = visible.height;
+        if (background == null || background.getWidth() != width || background.getHeight() != height)
+            background = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        backgroundArea.setBounds(0, 0, 0, 0); // 热力图借用了离屏图层，切回格子模式时要重画
+        int[] pixels = ((DataBufferInt) background.getRaster().getDataBuffer()).getData();
+        int empty = getBackground().getRGB();
+
+        int level = heatLevel(), shift = BLOCK_SHIFT + level;
+        AtomicIntegerArray cars = carsPerBlock[level];
+        int[] walls = wallsPerBlock[level];
+        int[] columns = heatColumns(visible.x, width, shift);
+        for (int y = 0, lastRow = -1; y < height; y++) {
+            int base = y * width;
+            int row = cellAt(visible.y + y, fieldMatrix.rows);
+            if (row < 0) {
+                lastRow = -1;
+                Arrays.fill(pixels, base, base + width, empty);
+                continue;
+            }
+            int br = row >> shift;
+            if (br == lastRow) {
+                // 和上一行像素落在同一排块上，直接照抄
+                System.arraycopy(pixels, base - width, pixels, base, width);
+                continue;
+            }
+            lastRow = br;
+            int rowBase = br * blockCols[level];
+            for (int x = 0, last = -1, rgb = empty; x < width; x++) {
+                int bc = columns[x];
+                if (bc != last) {
+                    last = bc;
+                    rgb = bc < 0 ? empty : heat(cars.get(rowBase + bc), walls[rowBase + bc], blockCells(level, br, bc));
+                }
+                pixels[base + x] = rgb;
+            }
+        }
+        g.drawImage(background, visible.x, visible.y, null);
+    }
+
+    // 一块至少占一个像素的最细一级
+    private int heatLevel() {
+        int level = 0;
+        while (level < LEVELS - 1 && (BLOCK << level) * scale < 1) level++;
+        return level;
+    }
+
+    // 像素坐标落在第几行/列格子上，地图外是 -1
+    private int cellAt(int pixel, int cells) {
+        if (pixel < minGap) return -1;
+        int cell = (int) ((pixel - minGap) / scale);
+        return cell < cells ? cell : -1;
+    }
+
+    private int[] heatColumns(int x0, int width, int shift) {
+        if (heatCols.length < width) heatCols = new int[width];
+        for (int x = 0; x < width; x++) {
+            int col = cellAt(x0 + x, fieldMatrix.cols);
+            heatCols[x] = col < 0 ? -1 : col >> shift;
+        }
+        return heatCols;
+    }
+
+    private int blockCells(int level, int br, int bc) {
+        int side = BLOCK << level;
+        int h = Math.min(side, fieldMatrix.rows - br * side);
+        int w = Math.min(side, fieldMatrix.cols - bc * side);
+        return h * w;
+    }
+
+    // 车越密越红，墙越密越暗
+    private static int heat(int cars, int walls, int cells) {
+        double car = Math.min(1.0, (double) cars / cells);
+        double wall = Math.min(1.0, (double) walls / cells);
+        int red = (int) (255 * (1 - 0.6 * wall));
+        int green = (int) (255 * (1 - car) * (1 - 0.6 * wall));
+        int blue = (int) (255 * (1 - car) * (1 - 0.6 * wall));
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    // 只在 fieldChanged 之后整张重数；forEachWall 不拷整张图，映射地图也不会因此整张展开
+    private void countBlockWalls() {
+        for (int[] walls : wallsPerBlock) Arrays.fill(walls, 0);
+        countedWallVersion = fieldMatrix.forEachWall(0, 0, fieldMatrix.rows - 1, fieldMatrix.cols - 1,
+                cell -> countWall(cell / fieldMatrix.cols, cell % fieldMatrix.cols, 1));
+    }
+
+    /* ===== 墙的增量：只改变了的格子 ===== */
+    private void applyWallDeltas() {
+        WallDelta delta;
+        while ((delta = wallDeltas.poll()) != null) {
+            // 块计数或图层马上要整体重算的话，增量就不用再加上去了；已经重算过、重算时读到了这批的也不加
+            boolean counted = !blockWallsStale && delta.version > countedWallVersion;
+            boolean drawn = !wallsChanged && !heatmapMode() && backgroundScale == scale && !backgroundArea.isEmpty()
+                    && delta.version > drawnWallVersion;
+            Graphics g = drawn ? background.getGraphics() : null;
+            try {
+                if (g != null) g.translate(-backgroundArea.x, -backgroundArea.y);
+                for (int cell : delta.getAdded()) applyWallCell(cell, true, counted, g);
+                for (int cell : delta.getRemoved()) applyWallCell(cell, false, counted, g);
+            } finally {
+                if (g != null) g.dispose();
+            }
+        }
+    }
+
+    private void applyWallCell(int cell, boolean wall, boolean counted, Graphics g) {
+        int row = cell / fieldMatrix.cols, col = cell % fieldMatrix.cols;
+        if (counted) countWall(row, col, wall ? 1 : -1);
+        if (g == null) return;
+        int x = cellX(col), y = cellY(row), w = cellX(col + 1) - x, h = cellY(row + 1) - y;
+        if (!backgroundArea.intersects(x, y, w + 1, h + 1)) return;
+        g.setColor(getBackground());
+        g.fillRect(x, y, w, h);
         g.setColor(Color.BLACK);
-        int gridWidth = screenWidth - 2 * minGap;
-        int gridHeight = screenHeight - 2 * minGap;
-        int step = Math.min(gridWidth / fieldMatrix.cols, gridHeight / fieldMatrix.rows);
-
-        int verticalGap = (gridHeight - step * fieldMatrix.rows) / 2 + minGap;
-        int horizontalGap = (gridWidth - step * fieldMatrix.cols) / 2 + minGap;
-        int left = horizontalGap;
-        int top = verticalGap;
-        int right = left + fieldMatrix.cols * step;
-        int bottom = top + fieldMatrix.rows * step;
-
-        // Drawing vertical lines
-        for (int i = 0; i <= fieldMatrix.cols; i++) {
-            g.drawLine(left + i * step, top, left + i * step, bottom);
-        }
-        // Drawing horizontal lines
-        for (int i = 0; i <= fieldMatrix.rows; i++) {
-            g.drawLine(left, top + i * step, right, top + i * step);
-        }
-
-        for (int i = 0; i < fieldMatrix.rows; i++)
-            for (int j = 0; j < fieldMatrix.cols; j++) {
-                if (fieldMatrix.getCellState(i, j) == FieldMatrix.CellState.WALL) {
-                    g.setColor(Color.RED);
-                    g.fill3DRect(left + j * step, top + i * step, step, step, false);
-                    g.setColor(Color.BLACK);
+        g.drawRect(x, y, w, h);
+        if (wall) {
+            g.setColor(Color.RED);
+            g.fill3DRect(x, y, (int) Math.ceil(scale), (int) Math.ceil(scale), false);
+        }
+    }
+
+    private int blockOf(int level, int row, int col) {
+        int shift = BLOCK_SHIFT + level;
+        return (row >> shift) * blockCols[level] + (col >> shift);
+    }
+
+    private void countWall(int row, int col, int delta) {
+        for (int level = 0; level < LEVELS; level++) wallsPerBlock[level][blockOf(level, row, col)] += delta;
+    }
+
+    private void countCar(int row, int col, int delta) {
+        for (int level = 0; level < LEVELS; level++) carsPerBlock[level].addAndGet(blockOf(level, row, col), delta);
+    }
+
+    /* ===== 格子 -> 车：每块一个小桶，格子下标和车成对存，块里车不多，线性找 ===== */
+    private static final class Occupants {
+        int size;
+        int[] cells = new int[4];
+        Car[] cars = new Car[4];
+    }
+
+    private ReentrantLock occupantLock(int block) {
+        return occupantLocks[block & (OCCUPANT_STRIPES - 1)];
+    }
+
+    // 格子里放上 car，原来记着别的车就覆盖
+    private void putOccupant(int row, int col, Car car) {
+        int block = blockOf(0, row, col), cell = row * fieldMatrix.cols + col;
+        ReentrantLock lock = occupantLock(block);
+        lock.lock();
+        try {
+            Occupants bucket = occupants[block];
+            if (bucket == null) occupants[block] = bucket = new Occupants();
+            for (int i = 0; i < bucket.size; i++) {
+                if (bucket.cells[i] == cell) {
+                    bucket.cars[i] = car;
+                    return;
                 }
             }
-        for (Car car : cars) {
-            Position p = car.getPosition();
-            g.setColor(car.getColor());
-            g.fill3DRect(left + p.col * step, top + p.row * step, step, step, false);
-            if (car.getName() != null) {
-                int stringWidth = fm.stringWidth(car.getName());
-                g.setColor(Color.WHITE);
-                g.drawString(car.getName(), left + p.col * step + (step - stringWidth) / 2,
-                        top + p.row * step + step / 2);
+            if (bucket.size == bucket.cells.length) {
+                bucket.cells = Arrays.copyOf(bucket.cells, bucket.size * 2);
+                bucket.cars = Arrays.copyOf(bucket.cars, bucket.size * 2);
+            }
+            bucket.cells[bucket.size] = cell;
+            bucket.cars[bucket.size++] = car;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 格子里记着的还是 car 才清掉，返回是否清了
+    private boolean removeOccupant(int row, int col, Car car) {
+        int block = blockOf(0, row, col), cell = row * fieldMatrix.cols + col;
+        ReentrantLock lock = occupantLock(block);
+        lock.lock();
+        try {
+            Occupants bucket = occupants[block];
+            if (bucket == null) return false;
+            for (int i = 0; i < bucket.size; i++) {
+                if (bucket.cells[i] != cell) continue;
+                if (bucket.cars[i] != car) return false;
+                int last = --bucket.size;
+                bucket.cells[i] = bucket.cells[last];
+                bucket.cars[i] = bucket.cars[last];
+                bucket.cars[last] = null;
+                if (last == 0) occupants[block] = null;
+                return true;
             }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    // 把一块里的车拷到 paintCells / paintCars，返回辆数
+    private int copyOccupants(int block) {
+        ReentrantLock lock = occupantLock(block);
+        lock.lock();
+        try {
+            Occupants bucket = occupants[block];
+            if (bucket == null) return 0;
+            if (paintCells.length < bucket.size) {
+                paintCells = new int[bucket.cells.length];
+                paintCars = new Car[bucket.cells.length];
+            }
+            System.arraycopy(bucket.cells, 0, paintCells, 0, bucket.size);
+            System.arraycopy(bucket.cars, 0, paintCars, 0, bucket.size);
+            return bucket.size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* ===== 脏格子：事件线程只置位，EDT 上的帧定时器统一换成 repaint(rect) ===== */
+    private void markDirty(int row, int col) {
+        if (row < 0 || row >= fieldMatrix.rows || col < 0 || col >= fieldMatrix.cols) return;
+        int cell = row * fieldMatrix.cols + col;
+        long mask = 1L << (cell & 63);
+        if ((dirtyCells.get(cell >>> 6) & mask) == 0) {
+            dirtyCells.getAndAccumulate(cell >>> 6, mask, (a, b) -> a | b);
+        }
+        anyDirty.set(true);
+    }
+
+    private void flushDirty() {
+        Rectangle visible = getVisibleRect();
+        boolean full = fullRepaint.getAndSet(false);
+        if (!full && !anyDirty.getAndSet(false)) return;
+        if (full || heatmapMode()) {
+            // 热力图模式下单格重画没有意义，整个可见区一帧重画一次
+            for (int w = 0; w < dirtyCells.length(); w++) dirtyCells.set(w, 0);
+            anyDirty.set(false);
+            repaint(visible);
+            return;
+        }
+        int step = (int) Math.ceil(scale);
+        // 只翻可见区那几行对应的 word；屏幕外的脏位留着，滚动过去时本来就会整块重画
+        int c0 = firstCol(visible.x), c1 = lastCol(visible.x + visible.width);
+        int r0 = firstRow(visible.y), r1 = lastRow(visible.y + visible.height);
+        for (int row = r0; row <= r1; row++) {
+            int from = row * fieldMatrix.cols + c0, to = row * fieldMatrix.cols + c1;
+            for (int w = from >>> 6; w <= to >>> 6; w++) {
+                if (dirtyCells.get(w) == 0) continue;
+                long bits = dirtyCells.getAndSet(w, 0);
+                while (bits != 0) {
+                    int cell = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int r = cell / fieldMatrix.cols, c = cell % fieldMatrix.cols;
+                    repaint(cellX(c), cellY(r), step + 1, step + 1);
+                }
+            }
         }
     }
 
     @Override
     public void carCreated(Car car) {
-        cars.add(car);
+        long p = car.getPackedPosition();
+        int row = Position.rowOf(p), col = Position.colOf(p);
+        putOccupant(row, col, car);
+        countCar(row, col, 1);
+        markDirty(row, col);
     }
 
     @Override
     public void carDestroyed(Car car) {
-        cars.remove(car);
+        long p = car.getPackedPosition();
+        int row = Position.rowOf(p), col = Position.colOf(p);
+        if (removeOccupant(row, col, car))
+            countCar(row, col, -1);
+        markDirty(row, col);
     }
 
     @Override
     public void carMoved(Car car, Position from, Position to, boolean success) {
-        repaint();
+        carMoved(car, from.packed(), to.packed(), success);
+    }
+
+    @Override
+    public void carMoved(Car car, long from, long to, boolean success) {
+        if (!success) return;
+        int fromRow = Position.rowOf(from), fromCol = Position.colOf(from);
+        int toRow = Position.rowOf(to), toCol = Position.colOf(to);
+        removeOccupant(fromRow, fromCol, car);
+        putOccupant(toRow, toCol, car);
+        for (int level = 0; level < LEVELS; level++) {
+            int fromBlock = blockOf(level, fromRow, fromCol), toBlock = blockOf(level, toRow, toCol);
+            if (fromBlock == toBlock) break; // 细一级在同一块里，粗的几级也一样
+            carsPerBlock[level].decrementAndGet(fromBlock);
+            carsPerBlock[level].incrementAndGet(toBlock);
+        }
+        markDirty(fromRow, fromCol);
+        markDirty(toRow, toCol);
+    }
+
+    @Override
+    public void carChanged(Car car) {
+        markDirty(car.getRow(), car.getCol());
+    }
+
+    @Override
+    public void wallsChanged(WallDelta delta) {
+        wallDeltas.add(delta);
+        for (int cell : delta.getAdded()) markDirty(delta.rowOf(cell), delta.colOf(cell));
+        for (int cell : delta.getRemoved()) markDirty(delta.rowOf(cell), delta.colOf(cell));
     }
 
     @Override
     public void fieldChanged() {
-        repaint();
+        wallsChanged = true;
+        blockWallsStale = true;
+        fullRepaint.set(true);
     }
 
 }
@@ -1,12 +1,47 @@
 package car;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface CarServer {
     enum Direction{
-        UP,DOWN,LEFT,RIGHT
+        UP(-1, 0),DOWN(1, 0),LEFT(0, -1),RIGHT(0, 1);
+
+        // 走一步行、列的变化
+        public final int dr, dc;
+
+        Direction(int dr, int dc){
+            this.dr = dr;
+            this.dc = dc;
+        }
     }
 
     Car createCar();
+    default List<Car> createCars(int n){
+        List<Car> created = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) created.add(createCar());
+        return created;
+    }
     void destroyCar(Car car);
+    // 走一步，走成时格子和车的位置都由服务器改好（Car.step 只转到这里）
     boolean moveCarTo(Car car, Direction direction);
+    // 沿 direction 走最多 n 步，返回这次走了几步（0 表示被挡住），车已经到了新位置；
+    // 可以少走，调用方再要剩下的。默认一次一步，服务器可以一次预留整段路径
+    default int moveCarAlong(Car car, Direction direction, int n){
+        return n > 0 && moveCarTo(car, direction) ? 1 : 0;
+    }
+    // 目标格被占时等它空出来再走，最多等 timeoutMillis；返回 true 时车已经到了新格子（和 Car.step 一样）。
+    // 默认不等，只试一次
+    default boolean moveCarToWhenFree(Car car, Direction direction, long timeoutMillis){
+        return car.step(direction);
+    }
+    // 一步里很多车一起走，cars[i] 往 directions[i]（null 表示不动）；返回每辆是否走成，成功的车已经到了新格子。
+    // 默认逐辆 step；服务器可以一起裁决，让排成一串的车同时前进、围成一圈的一起转
+    default boolean[] moveCars(Car[] cars, Direction[] directions){
+        boolean[] moved = new boolean[cars.length];
+        for (int i = 0; i < cars.length; i++) moved[i] = directions[i] != null && cars[i].step(directions[i]);
+        return moved;
+    }
+    default void carChanged(Car car) {}
 
 }
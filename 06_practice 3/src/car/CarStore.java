@@ -0,0 +1,222 @@
+package car;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 按列存放一个服务器的所有车：位置、速度、颜色、名字各是一列基本类型数组，按槽位寻址；
+ * Car 只是 (store, slot) 的句柄。销毁的槽位进空闲栈，新建优先复用，建和删都是 O(1)。
+ * 一百万辆车大约 56 MB（列 24 字节 + 句柄 32 字节）。
+ *
+ * 各列按页分配，扩容只加页不搬数据，别的线程正在写的格子不会丢；
+ * 位置的行列打包在一个 long 里，并发读不会读到一半新一半旧。
+ * 建、删、改名拿 store 的 ReentrantLock（不用 synchronized，虚拟线程等锁时不钉住载体线程）；
+ * 读写某辆车的列不加锁，和原来 Car 的普通字段一样。
+ **/
+public class CarStore {
+    private static final int PAGE_SHIFT = 14, PAGE = 1 << PAGE_SHIFT, PAGE_MASK = PAGE - 1;
+    // 车号全局递增，和原来 Car 的静态计数一样，不同服务器的车也不重号
+    private static final AtomicInteger nextIndex = new AtomicInteger(1);
+
+    final CarServer server;
+
+    private volatile long[][] positions = new long[0][];
+    private volatile int[][] speeds = new int[0][];
+    private volatile int[][] rgbs = new int[0][];
+    private volatile int[][] nameIds = new int[0][];
+    private volatile Car[][] handles = new Car[0][];
+    private volatile int highWater; // 用过的槽位数，遍历到这里为止
+
+    // 以下受 lock 保护；live 另外是 volatile，size() 不拿锁
+    private final ReentrantLock lock = new ReentrantLock();
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private volatile int live;
+
+    // 名字表：同名的车共用一个 id，0 表示没有名字。只增不减，读的时候不加锁
+    private volatile String[] names = new String[16];
+    private int nameCount = 1;
+    private final Map<String, Integer> nameIndex = new HashMap<>();
+
+    public CarStore(CarServer server){
+        this.server = server;
+    }
+
+    /* ===== 建和删 ===== */
+    // 新车：新车号、随机速度和颜色
+    public Car create(int row, int col){
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        return add(nextIndex.getAndIncrement(), row, col, rnd.nextInt(300, 600), 0xFF000000 | rnd.nextInt(0x1000000), null);
+    }
+
+    // 按给定的状态放回一辆车（检查点恢复、日志回放），之后新建的车号排在它后面
+    public Car restore(int index, int row, int col, int speed, int rgb, String name){
+        nextIndex.accumulateAndGet(index + 1, Math::max);
+        return add(index, row, col, speed, rgb, name);
+    }
+
+    private Car add(int index, int row, int col, int speed, int rgb, String name){
+        lock.lock();
+        try {
+            int slot = freeCount > 0 ? freeSlots[--freeCount] : highWater;
+            if (slot == highWater) {
+                if ((slot & PAGE_MASK) == 0) addPage();
+                highWater = slot + 1;
+            }
+            positions[slot >>> PAGE_SHIFT][slot & PAGE_MASK] = Position.pack(row, col);
+            speeds[slot >>> PAGE_SHIFT][slot & PAGE_MASK] = speed;
+            rgbs[slot >>> PAGE_SHIFT][slot & PAGE_MASK] = rgb;
+            nameIds[slot >>> PAGE_SHIFT][slot & PAGE_MASK] = nameId(name);
+            Car car = new Car(this, slot, index);
+            handles[slot >>> PAGE_SHIFT][slot & PAGE_MASK] = car;
+            live++;
+            return car;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addPage(){
+        int pages = positions.length;
+        long[][] p = Arrays.copyOf(positions, pages + 1);
+        p[pages] = new long[PAGE];
+        int[][] s = Arrays.copyOf(speeds, pages + 1);
+        s[pages] = new int[PAGE];
+        int[][] c = Arrays.copyOf(rgbs, pages + 1);
+        c[pages] = new int[PAGE];
+        int[][] n = Arrays.copyOf(nameIds, pages + 1);
+        n[pages] = new int[PAGE];
+        Car[][] h = Arrays.copyOf(handles, pages + 1);
+        h[pages] = new Car[PAGE];
+        positions = p;
+        speeds = s;
+        rgbs = c;
+        nameIds = n;
+        handles = h;
+    }
+
+    // 句柄先记下最终状态再让出槽位：还拿着它的人（异步监听者等）读到的仍是这辆车
+    public boolean destroy(Car car){
+        lock.lock();
+        try {
+            if (car.store != this || !isAlive(car)) return false;
+            int slot = car.slot;
+            car.detach(position(slot), speed(slot), rgb(slot), name(slot));
+            handles[slot >>> PAGE_SHIFT][slot & PAGE_MASK] = null;
+            if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            freeSlots[freeCount++] = slot;
+            live--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 不经服务器直接摆车的位置，格子不管：回放（JournalReplay）按记录重演用
+    public void place(Car car, int row, int col){
+        if (isAlive(car)) setPosition(car.slot, Position.pack(row, col));
+    }
+
+    public boolean isAlive(Car car){
+        int slot = car.slot;
+        return slot < highWater && handles[slot >>> PAGE_SHIFT][slot & PAGE_MASK] == car;
+    }
+
+    public int size(){
+        return live;
+    }
+
+    // 遍历活着的车（弱一致：遍历期间建/删的车可能看到也可能看不到）
+    public void forEach(Consumer<Car> action){
+        Car[][] h = handles;
+        int end = Math.min(highWater, h.length << PAGE_SHIFT);
+        for (int slot = 0; slot < end; slot++) {
+            Car car = h[slot >>> PAGE_SHIFT][slot & PAGE_MASK];
+            if (car != null) action.accept(car);
+        }
+    }
+
+    public List<Car> toList(){
+        List<Car> cars = new ArrayList<>(size());
+        forEach(cars::add);
+        return cars;
+    }
+
+    /* ===== 检查点用：各列按页整块拷下来 ===== */
+    // 槽位 0..count-1 的列，handles[slot] 为 null 的槽位是空的；names 按 nameIds 查
+    static final class Columns {
+        final int count;
+        final long[] positions;
+        final int[] speeds, rgbs, nameIds;
+        final Car[] handles;
+        final String[] names;
+
+        private Columns(int count, long[] positions, int[] speeds, int[] rgbs, int[] nameIds, Car[] handles, String[] names){
+            this.count = count;
+            this.positions = positions;
+            this.speeds = speeds;
+            this.rgbs = rgbs;
+            this.nameIds = nameIds;
+            this.handles = handles;
+            this.names = names;
+        }
+    }
+
+    // 每页一次 System.arraycopy，不碰句柄也不查名字，BasicCarServer 关着 gate 时调用，停顿只是几次内存拷贝；
+    // 逐辆车的事（车号、名字）留给调用方开门之后做
+    Columns copyColumns(){
+        int count = highWater;
+        long[][] p = positions;
+        int[][] s = speeds, c = rgbs, n = nameIds;
+        Car[][] h = handles;
+        long[] positionCopy = new long[count];
+        int[] speedCopy = new int[count], rgbCopy = new int[count], nameIdCopy = new int[count];
+        Car[] handleCopy = new Car[count];
+        for (int page = 0, from = 0; from < count; page++, from += PAGE) {
+            int length = Math.min(PAGE, count - from);
+            System.arraycopy(p[page], 0, positionCopy, from, length);
+            System.arraycopy(s[page], 0, speedCopy, from, length);
+            System.arraycopy(c[page], 0, rgbCopy, from, length);
+            System.arraycopy(n[page], 0, nameIdCopy, from, length);
+            System.arraycopy(h[page], 0, handleCopy, from, length);
+        }
+        // 名字表只增不减，先拷名字 id 再取表，拷到的 id 在表里都有
+        return new Columns(count, positionCopy, speedCopy, rgbCopy, nameIdCopy, handleCopy, names);
+    }
+
+    /* ===== 列的读写，Car 用；位置按 Position.pack 打包 ===== */
+    long position(int slot){ return positions[slot >>> PAGE_SHIFT][slot & PAGE_MASK]; }
+    void setPosition(int slot, long position){ positions[slot >>> PAGE_SHIFT][slot & PAGE_MASK] = position; }
+    int speed(int slot){ return speeds[slot >>> PAGE_SHIFT][slot & PAGE_MASK]; }
+    int rgb(int slot){ return rgbs[slot >>> PAGE_SHIFT][slot & PAGE_MASK]; }
+    void setRgb(int slot, int rgb){ rgbs[slot >>> PAGE_SHIFT][slot & PAGE_MASK] = rgb; }
+    String name(int slot){ return names[nameIds[slot >>> PAGE_SHIFT][slot & PAGE_MASK]]; }
+
+    void setName(Car car, String name){
+        lock.lock();
+        try {
+            if (isAlive(car)) nameIds[car.slot >>> PAGE_SHIFT][car.slot & PAGE_MASK] = nameId(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int nameId(String name){
+        if (name == null) return 0;
+        Integer id = nameIndex.get(name);
+        if (id != null) return id;
+        String[] table = names;
+        if (nameCount == table.length) table = Arrays.copyOf(table, nameCount * 2);
+        table[nameCount] = name;
+        names = table;
+        nameIndex.put(name, nameCount);
+        return nameCount++;
+    }
+}
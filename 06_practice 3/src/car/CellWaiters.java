@@ -0,0 +1,120 @@
+package car;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 等格子空出来的车（BasicCarServer.moveCarToWhenFree）。每个目标格一个先来先到的队列，
+ * 格子空出来时（车开走、车被销毁、拆墙）只叫醒队头一个；没人等的时候 vacated 只读一次计数。
+ * 另外按“车现在站的格子”记一份，用来顺着“等的格子上站着的车又在等谁”找环：
+ * 一圈车互相等对方的格子就谁也走不了，把最后入环的那辆放弃等待，让它换个方向。
+ **/
+final class CellWaiters {
+    static final class Waiter {
+        final Car car;
+        final Thread thread = Thread.currentThread();
+        final int from, to;
+        // 叫醒的一方和超时放弃的一方抢这个标记，只有一方成功，叫醒不会落空
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Waiter(Car car, int from, int to){
+            this.car = car;
+            this.from = from;
+            this.to = to;
+        }
+
+        boolean claim(){
+            return claimed.compareAndSet(false, true);
+        }
+
+        boolean isClaimed(){
+            return claimed.get();
+        }
+    }
+
+    private final Map<Integer, Queue<Waiter>> byTarget = new ConcurrentHashMap<>();
+    private final Map<Integer, Waiter> byFrom = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder gridlocks = new LongAdder();
+
+    Waiter add(Car car, int from, int to){
+        Waiter waiter = new Waiter(car, from, to);
+        waiting.incrementAndGet();
+        byTarget.compute(to, (cell, queue) -> {
+            if (queue == null) queue = new ConcurrentLinkedQueue<>();
+            queue.add(waiter);
+            return queue;
+        });
+        byFrom.put(from, waiter);
+        return waiter;
+    }
+
+    void remove(Waiter waiter){
+        byFrom.remove(waiter.from, waiter);
+        byTarget.computeIfPresent(waiter.to, (cell, queue) -> {
+            queue.remove(waiter);
+            return queue.isEmpty() ? null : queue;
+        });
+        waiting.decrementAndGet();
+    }
+
+    // 挂起到被叫醒或到 deadline（System.nanoTime），返回是否被叫醒
+    boolean park(Waiter waiter, long deadline){
+        while (!waiter.isClaimed()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return !waiter.claim();
+            LockSupport.parkNanos(this, remaining);
+        }
+        return true;
+    }
+
+    // 格子空了：叫醒等它的第一辆车（已经超时放弃的跳过）
+    void vacated(int cell){
+        if (waiting.get() == 0) return;
+        Queue<Waiter> queue = byTarget.get(cell);
+        if (queue == null) return;
+        Waiter waiter;
+        while ((waiter = queue.poll()) != null) {
+            if (waiter.claim()) {
+                LockSupport.unpark(waiter.thread);
+                return;
+            }
+        }
+    }
+
+    // 车被销毁：它要是在等，叫醒它（回来发现自己没了就放弃）
+    void abandon(Car car, int cell){
+        if (waiting.get() == 0) return;
+        Waiter waiter = byFrom.get(cell);
+        if (waiter != null && waiter.car == car && waiter.claim()) LockSupport.unpark(waiter.thread);
+    }
+
+    // waiter 已经登记：顺着等待链走，回到自己就是成环。链上的信息可能正在变，偶尔误判只是多放弃一次
+    boolean closesCycle(Waiter waiter){
+        int cell = waiter.to;
+        for (int steps = waiting.get(); steps >= 0; steps--) {
+            Waiter next = byFrom.get(cell);
+            if (next == null) return false;
+            if (next == waiter) {
+                gridlocks.increment();
+                return true;
+            }
+            cell = next.to;
+        }
+        return false;
+    }
+
+    int getWaiting(){
+        return waiting.get();
+    }
+
+    long getGridlocks(){
+        return gridlocks.sum();
+    }
+}
@@ -0,0 +1,130 @@
+package car;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 整个模拟（地图格子 + 所有车）的二进制检查点，BasicCarServer.checkpoint / restore 用。
+ * 文件（大端）：20 字节头（魔数 "CARC"、版本、rows、cols、车数），
+ * 接着是 FieldMatrix 原样的格子 word（每格 2 bit），然后按列存车：车号、格子、速度、ARGB 各一个 int[]，
+ * 最后是名字（int 长度，-1 表示没有名字，接 UTF-8）。
+ * 恢复时映射文件，各列整块读进数组，不逐条解析。
+ **/
+final class Checkpoint {
+    static final int MAGIC = 0x43415243; // "CARC"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 20;
+
+    private Checkpoint(){
+    }
+
+    /* ===== 写 ===== */
+    // 关上 gate 的那一刻就是检查点的时刻：没有车在改格子和位置，地图快照和车的各列（按页整块拷贝）一起读下来，
+    // 每辆车的格子正好是快照里的一个 CAR 格。挑出活着的槽位、取车号和名字、编码、写文件都在开门之后
+    static void write(FieldMatrix field, CarStore store, MoveGate gate, Path file) throws IOException {
+        FieldSnapshot snapshot;
+        CarStore.Columns columns;
+        int cols = field.cols;
+        gate.close();
+        try {
+            snapshot = field.snapshot();
+            columns = store.copyColumns();
+        } finally {
+            gate.open();
+        }
+
+        int n = 0;
+        for (int slot = 0; slot < columns.count; slot++) if (columns.handles[slot] != null) n++;
+        int[] indexes = new int[n], cells = new int[n], speeds = new int[n], colors = new int[n];
+        byte[][] names = new byte[n][];
+        long bytes = HEADER_BYTES + 4L * snapshot.words.length + 16L * n;
+        for (int slot = 0, i = 0; slot < columns.count; slot++) {
+            if (columns.handles[slot] == null) continue;
+            long p = columns.positions[slot];
+            String name = columns.names[columns.nameIds[slot]];
+            indexes[i] = columns.handles[slot].getIndex();
+            cells[i] = Position.rowOf(p) * cols + Position.colOf(p);
+            speeds[i] = columns.speeds[slot];
+            colors[i] = columns.rgbs[slot];
+            names[i] = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+            bytes += 4 + (names[i] == null ? 0 : names[i].length);
+            i++;
+        }
+        if (bytes > Integer.MAX_VALUE) throw new IOException("Checkpoint too large: " + bytes + " bytes");
+        ByteBuffer out = ByteBuffer.allocate((int) bytes);
+        out.putInt(MAGIC).putInt(VERSION).putInt(field.rows).putInt(cols).putInt(n);
+        putInts(out, snapshot.words);
+        putInts(out, indexes);
+        putInts(out, cells);
+        putInts(out, speeds);
+        putInts(out, colors);
+        for (byte[] name : names) {
+            out.putInt(name == null ? -1 : name.length);
+            if (name != null) out.put(name);
+        }
+        out.flip();
+
+        // 先写临时文件再换名，写到一半出错不会破坏上一个检查点；
+        // 换名之前先把内容刷到盘上，否则崩溃后可能换名落了盘、内容没落，留下一个空的或截断的检查点
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) channel.write(out);
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void putInts(ByteBuffer out, int[] values){
+        out.asIntBuffer().put(values);
+        out.position(out.position() + 4 * values.length);
+    }
+
+    /* ===== 读 ===== */
+    static BasicCarServer read(Path file, CarEventsListener listener) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Not a checkpoint: " + file);
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.getInt() != MAGIC) throw new IOException("Not a checkpoint: " + file);
+        int version = in.getInt();
+        if (version != VERSION) throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+        int rows = in.getInt(), cols = in.getInt(), n = in.getInt();
+        if (rows < 0 || cols < 0 || n < 0 || (long) rows * cols > Integer.MAX_VALUE)
+            throw new IOException("Corrupt checkpoint header: " + file);
+        int wordCount = (int) (((long) rows * cols + (1 << FieldMatrix.CELLS_PER_WORD_SHIFT) - 1) >>> FieldMatrix.CELLS_PER_WORD_SHIFT);
+        if (in.remaining() < 4L * wordCount + 20L * n) throw new IOException("Truncated checkpoint: " + file);
+
+        FieldMatrix field = new FieldMatrix(rows, cols, getInts(in, wordCount));
+        int[] indexes = getInts(in, n), cells = getInts(in, n), speeds = getInts(in, n), colors = getInts(in, n);
+        BasicCarServer server = new BasicCarServer(field, listener);
+        for (int i = 0; i < n; i++) {
+            int length = in.getInt();
+            String name = null;
+            if (length >= 0) {
+                byte[] utf8 = new byte[length];
+                in.get(utf8);
+                name = new String(utf8, StandardCharsets.UTF_8);
+            }
+            if (cells[i] < 0 || cells[i] >= rows * cols) throw new IOException("Corrupt checkpoint car cell " + cells[i] + ": " + file);
+            server.restoreCar(indexes[i], cells[i] / cols, cells[i] % cols, speeds[i], colors[i], name);
+        }
+        return server;
+    }
+
+    private static int[] getInts(ByteBuffer in, int count){
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + 4 * count);
+        return values;
+    }
+}
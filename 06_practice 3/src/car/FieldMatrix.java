@@ -1,29 +1,99 @@
 package car;
 
+import car.metrics.CarMetrics;
+
 import java.io.*;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.LongBinaryOperator;
 
 public class FieldMatrix {
-    enum CellState { EMPTY, CAR, WALL }
+    public enum CellState { EMPTY, CAR, WALL }
+
+    // 新车放在哪里
+    public enum AllocationPolicy { FIRST_FREE, RANDOM_FREE, NEAREST }
+
+    static final CellState[] STATES = CellState.values();
+    static final int EMPTY = 0, CAR = 1, WALL = 2;
+
+    // 每格 2 bit，一个 int 装 16 格；按 cell 线性下标 r*cols+c 寻址
+    // 所有写都是对所在 word 的 CAS，不再有锁
+    private static final int CELL_BITS = 2;
+    static final int CELLS_PER_WORD_SHIFT = 4;
+    private static final int CELL_MASK = (1 << CELL_BITS) - 1;
+
+    private final AtomicIntegerArray words;
+    private final FreeCellIndex freeCells; // 空格索引，随每次 EMPTY 进出同步更新
+
+    // 快照用的分段写计数（seqlock）：每段一个开始计数、一个结束计数，写前开始 +1、写完结束 +1，
+    // 两个不相等表示这一段有写在进行。按线程分段，写者之间不争同一个计数器；每段隔开一个缓存行避免伪共享。
+    // 同一段可能同时有几个写者（线程号取模撞上），所以不能用一个计数的奇偶判断
+    private static final int WRITE_STRIPES = 64, STRIPE_PAD = 16, BEGIN = 0, END = 1;
+    private static final int OPTIMISTIC_SNAPSHOTS = 8;
+    private final AtomicLongArray writeCounters = new AtomicLongArray(WRITE_STRIPES * STRIPE_PAD);
+    private final AtomicInteger freezers = new AtomicInteger(); // >0 时新写者先等快照拷完
+    private final ReentrantLock exclusiveWriter = new ReentrantLock(); // 批量移动一次只有一个
+    private final AtomicLong wallVersion = new AtomicLong(); // 加墙/拆墙成功的次数，车的移动不算
+    // 改墙的线程之间共享（读锁），forEachWall 独占（写锁）：读区域里的墙时没有墙在变，车照常走
+    private final ReentrantReadWriteLock wallReaders = new ReentrantReadWriteLock();
+    // 最近的改墙记录，版本 v 放在 v & (WALL_LOG-1)：高 32 位是版本的低 32 位，低 32 位是格子，一次写入不会读到一半。
+    // 只记哪个格子变过、不记变成什么，跟的人按格子当前的状态改（见 catchUpWalls），记录先后和 CAS 先后不一致也没关系
+    private static final int WALL_LOG = 1 << 12;
+    private static final LongBinaryOperator NEWER_ENTRY = (old, entry) -> (int) ((entry >>> 32) - (old >>> 32)) > 0 ? entry : old;
+    private final AtomicLongArray wallLog = new AtomicLongArray(WALL_LOG);
 
-    private final CellState[][] cells;
-    private final ReentrantLock[][] locks; // 每个格子一个独立的可重入锁
+    // 从二进制文件映射的地图（BinaryField.map）：墙按块懒加载，每块 1024 个 word（16384 格），
+    // 任何读写 word 之前先保证所在块已展开。普通地图这两个字段是 null
+    private static final int TILE_WORD_SHIFT = 10;
+    private static final int TILE_UNLOADED = 0, TILE_LOADING = 1, TILE_LOADED = 2;
+    private final BinaryField.Plane mappedWalls;
+    private final AtomicIntegerArray tileStates;
 
     public final int rows;
     public final int cols;
 
     public FieldMatrix(int rows, int cols){
+        this(rows, cols, null, null);
+    }
+
+    FieldMatrix(int rows, int cols, BinaryField.Plane mappedWalls){
+        this(rows, cols, mappedWalls, null);
+    }
+
+    // 从检查点恢复（Checkpoint）：cells 是和 FieldSnapshot 相同格式的格子，整块照抄
+    FieldMatrix(int rows, int cols, int[] cells){
+        this(rows, cols, null, cells);
+    }
+
+    private FieldMatrix(int rows, int cols, BinaryField.Plane mappedWalls, int[] cells){
+        if ((long) rows * cols > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Field too large: " + rows + "x" + cols);
         this.rows = rows;
         this.cols = cols;
-        this.cells = new CellState[rows][cols];
-        this.locks = new ReentrantLock[rows][cols];
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                cells[r][c] = CellState.EMPTY;
-                locks[r][c] = new ReentrantLock();
+        int cellCount = rows * cols;
+        int wordCount = (cellCount + (1 << CELLS_PER_WORD_SHIFT) - 1) >>> CELLS_PER_WORD_SHIFT;
+        if (cells != null && cells.length != wordCount)
+            throw new IllegalArgumentException("Expected " + wordCount + " words, got " + cells.length);
+        this.words = cells == null ? new AtomicIntegerArray(wordCount) : new AtomicIntegerArray(cells);
+        this.freeCells = new FreeCellIndex(cellCount);
+        if (cells != null) {
+            for (int w = 0; w < wordCount; w++) {
+                // 每格 2 bit 里任一位为 1 就不是空格
+                for (int busy = (cells[w] | cells[w] >>> 1) & 0x55555555; busy != 0; busy &= busy - 1)
+                    freeCells.update((w << CELLS_PER_WORD_SHIFT) + (Integer.numberOfTrailingZeros(busy) >>> 1), false);
             }
         }
+        this.mappedWalls = mappedWalls;
+        this.tileStates = mappedWalls == null ? null
+                : new AtomicIntegerArray(((words.length() - 1) >>> TILE_WORD_SHIFT) + 1);
     }
     public static FieldMatrix load(InputStreamReader isr){
         try (Scanner scanner = new Scanner(isr)){
@@ -38,15 +108,10 @@ public class FieldMatrix {
             for (int i = 0; i < rows; i++) {
                 String line = "";
                 if (scanner.hasNext()) line = scanner.nextLine();
-                try {
-                    for (int j = 0; j < cols; j++) {
-                        //System.out.println("line=" + line + " i=" + i + " j=" + j);
-                        switch (line.charAt(j)) {
-                            case '*':
-                                fm.cells[i][j] = CellState.WALL;
-                        }
-                    }
-                }catch(StringIndexOutOfBoundsException e){}
+                // 行比 cols 短就当后面都是空格
+                for (int j = 0, n = Math.min(cols, line.length()); j < n; j++) {
+                    if (line.charAt(j) == '*') fm.casCell(fm.cellOf(i, j), EMPTY, WALL);
+                }
             }
             return fm;
         }catch(Exception e){
@@ -67,108 +132,674 @@ public class FieldMatrix {
 //        throw new RuntimeException("No empty fields!");
 //    }
     public Position occupyFirstFreeCellByCar() {
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                // 尝试只锁这个格子，避免全局阻塞与死锁
-                if (locks[i][j].tryLock()) {
-                    try {
-                        if (cells[i][j] == CellState.EMPTY) {
-                            cells[i][j] = CellState.CAR;
-                            return new Position(i, j);
-                        }
-                    } finally {
-                        locks[i][j].unlock();
+        return occupyFreeCell(AllocationPolicy.FIRST_FREE);
+    }
+
+    /* ===== 分配：靠空格索引找候选格，CAS 占住；候选过期就纠正索引再找 ===== */
+    public Position occupyFreeCell(AllocationPolicy policy) {
+        if (policy == AllocationPolicy.NEAREST) return occupyFreeCellNear(rows / 2, cols / 2);
+        while (true) {
+            int cell = policy == AllocationPolicy.RANDOM_FREE ? freeCells.random() : freeCells.first();
+            if (cell < 0) {
+                if (freeCells.isEmpty()) throw new RuntimeException("No empty fields!");
+                continue;
+            }
+            if (casCell(cell, EMPTY, CAR)) return new Position(cell / cols, cell % cols);
+            syncFree(cell);
+        }
+    }
+
+    // 离 (r,c) 曼哈顿距离最近的空格：从第 r 行往上下两边扩，每行用位图按 long 找左右最近的空位，
+    // 行距已经不小于当前最优距离时就停
+    public Position occupyFreeCellNear(int r, int c) {
+        r = Math.max(0, Math.min(rows - 1, r));
+        c = Math.max(0, Math.min(cols - 1, c));
+        while (!freeCells.isEmpty()) {
+            int best = Integer.MAX_VALUE, bestCell = -1;
+            for (int dr = 0; dr < best && (r - dr >= 0 || r + dr < rows); dr++) {
+                for (int row = r - dr; row <= r + dr; row += Math.max(1, 2 * dr)) {
+                    if (row < 0 || row >= rows) continue;
+                    int reach = Math.min(best - dr, cols); // 本行只需要看 |dc| < reach 的范围
+                    int center = cellOf(row, c), rowStart = cellOf(row, 0);
+                    int right = freeCells.nextFree(center, Math.min(center + reach, rowStart + cols));
+                    if (right >= 0 && dr + right - center < best) {
+                        best = dr + right - center;
+                        bestCell = right;
+                    }
+                    int left = freeCells.prevFree(Math.max(center - reach + 1, rowStart), center);
+                    if (left >= 0 && dr + center - left < best) {
+                        best = dr + center - left;
+                        bestCell = left;
                     }
                 }
-                // tryLock 失败说明该格当前在被修改，跳过继续找下一个
             }
+            if (bestCell < 0) continue;
+            if (casCell(bestCell, EMPTY, CAR)) return new Position(bestCell / cols, bestCell % cols);
+            syncFree(bestCell);
         }
         throw new RuntimeException("No empty fields!");
     }
 
+    // 占用指定格子（基准/恢复用），只有 EMPTY 才能占
+    boolean occupyCell(int r, int c){
+        if (!inBounds(r,c)) return false;
+        return casCell(cellOf(r,c), EMPTY, CAR);
+    }
+
+    // 车被销毁时释放格子
+    public boolean releaseCell(int r, int c){
+        if (!inBounds(r,c)) return false;
+        return casCell(cellOf(r,c), CAR, EMPTY);
+    }
+
     /* ===== 工具方法 ===== */
     private boolean inBounds(int r, int c){
         return r >= 0 && r < rows && c >= 0 && c < cols;
     }
-    //private int lin(int r, int c){ return r * cols + c; }
+    private int cellOf(int r, int c){ return r * cols + c; }
 
-    private void lockCell(int r, int c){
-        locks[r][c].lock();
+    private static int shiftOf(int cell){
+        return (cell & ((1 << CELLS_PER_WORD_SHIFT) - 1)) * CELL_BITS;
+    }
+    static int stateIn(int word, int cell){
+        return (word >>> shiftOf(cell)) & CELL_MASK;
     }
-    private void unlockCell(int r, int c){
-        locks[r][c].unlock();
+    private static int withState(int word, int cell, int state){
+        int shift = shiftOf(cell);
+        return (word & ~(CELL_MASK << shift)) | (state << shift);
+    }
+    private int state(int cell){
+        return stateIn(word(cell >>> CELLS_PER_WORD_SHIFT), cell);
+    }
+    // 读 word 一律走这里，映射地图先展开所在块；CAS 之前都先读过，所以写也保证已展开
+    private int word(int w){
+        if (tileStates != null && tileStates.get(w >>> TILE_WORD_SHIFT) != TILE_LOADED) loadTile(w >>> TILE_WORD_SHIFT);
+        return words.get(w);
     }
 
-//    private void lockPairOrdered(int r1, int c1, int r2, int c2){
-//        int a = lin(r1, c1), b = lin(r2, c2);
-//        if (a <= b) { locks[r1][c1].lock(); if (a != b) locks[r2][c2].lock(); }
-//        else        { locks[r2][c2].lock(); locks[r1][c1].lock(); }
-//    }
-//    private void unlockPairOrdered(int r1, int c1, int r2, int c2){
-//        int a = lin(r1, c1), b = lin(r2, c2);
-//        if (a <= b) { if (a != b) locks[r2][c2].unlock(); locks[r1][c1].unlock(); }
-//        else        { locks[r1][c1].unlock(); locks[r2][c2].unlock(); }
-//    }
+    private boolean casCell(int cell, int expect, int update){
+        int slot = beginWrite();
+        try {
+            return casCellInWrite(cell, expect, update);
+        } finally {
+            endWrite(slot);
+        }
+    }
+
+    // 单格 CAS：只要该格仍是 expect 就一直重试（失败只可能是同 word 里别的格子变了）
+    private boolean casCellInWrite(int cell, int expect, int update){
+        int w = cell >>> CELLS_PER_WORD_SHIFT;
+        while (true) {
+            int word = word(w);
+            if (stateIn(word, cell) != expect) return false;
+            if (words.compareAndSet(w, word, withState(word, cell, update))) {
+                if (expect == EMPTY || update == EMPTY) syncFree(cell);
+                return true;
+            }
+            CarMetrics.casRetry();
+        }
+    }
+
+    // 让空格索引的 bit 跟上格子状态；写完再读一次，期间被改了就再同步
+    private void syncFree(int cell){
+        boolean free;
+        do {
+            free = state(cell) == EMPTY;
+            freeCells.update(cell, free);
+        } while ((state(cell) == EMPTY) != free);
+    }
 
-    /* ===== 读：建议也加锁，避免读到中间态 ===== */
+    /* ===== 读：单个 word 的 volatile 读，不加锁 ===== */
     public CellState getCellState(int r, int c){
         if (!inBounds(r,c)) throw new IndexOutOfBoundsException();
-        lockCell(r,c);
+        return STATES[state(cellOf(r,c))];
+    }
+
+    /* ===== 单格写：加墙/拆墙（绝不覆盖车） ===== */
+    public boolean addWall(int r, int c){
+        return inBounds(r,c) && changeWall(cellOf(r,c), EMPTY, WALL);
+    }
+
+    public boolean removeWall(int r, int c){
+        return inBounds(r,c) && changeWall(cellOf(r,c), WALL, EMPTY);
+    }
+
+    private boolean changeWall(int cell, int expect, int update){
+        wallReaders.readLock().lock();
         try {
-            return cells[r][c];
+            if (!casCell(cell, expect, update)) return false;
+            logWall(wallVersion.incrementAndGet(), cell);
         } finally {
-            unlockCell(r,c);
+            wallReaders.readLock().unlock();
         }
+        if (update == WALL) CarMetrics.wallsChanged(1, 0); else CarMetrics.wallsChanged(0, 1);
+        return true;
     }
 
-    /* ===== 单格写：加墙/拆墙（绝不覆盖车） ===== */
-    public boolean addWall(int r, int c){
-        if (!inBounds(r,c)) return false;
-        lockCell(r,c);
-        try{
-            if (cells[r][c] == CellState.EMPTY){
-                cells[r][c] = CellState.WALL;
-                return true;
+    /* ===== 批量改墙：一个写区间里完成，快照要么全看到、要么全看不到 ===== */
+    // add 里的格子 EMPTY->WALL，remove 里的 WALL->EMPTY（下标 r*cols+c）；
+    // 状态不符的（有车、已经是墙、越界……）跳过，返回真正变了的格子
+    public WallDelta changeWalls(int[] add, int[] remove){
+        int cellCount = rows * cols;
+        int[] added = new int[add == null ? 0 : add.length], removed = new int[remove == null ? 0 : remove.length];
+        int na = 0, nr = 0;
+        long version;
+        wallReaders.readLock().lock();
+        try {
+            int slot = beginWrite();
+            try {
+                for (int i = 0; i < added.length; i++)
+                    if (add[i] >= 0 && add[i] < cellCount && casCellInWrite(add[i], EMPTY, WALL)) added[na++] = add[i];
+                for (int i = 0; i < removed.length; i++)
+                    if (remove[i] >= 0 && remove[i] < cellCount && casCellInWrite(remove[i], WALL, EMPTY)) removed[nr++] = remove[i];
+            } finally {
+                endWrite(slot);
             }
-            return false;
+            // 版本在锁里定下来：forEachWall 返回的版本和它看到的墙对得上
+            version = na + nr > 0 ? wallVersion.addAndGet(na + nr) : wallVersion.get();
+            long v = version - na - nr;
+            for (int i = 0; i < na; i++) logWall(++v, added[i]);
+            for (int i = 0; i < nr; i++) logWall(++v, removed[i]);
         } finally {
-            unlockCell(r,c);
+            wallReaders.readLock().unlock();
         }
+        if (na + nr > 0) CarMetrics.wallsChanged(na, nr);
+        return new WallDelta(cols, Arrays.copyOf(added, na), Arrays.copyOf(removed, nr), version);
     }
 
-    public boolean removeWall(int r, int c){
-        if (!inBounds(r,c)) return false;
-        lockCell(r,c);
-        try{
-            if (cells[r][c] == CellState.WALL){
-                cells[r][c] = CellState.EMPTY;
-                return true;
+    // 墙的版本：两次相同说明期间没有加墙/拆墙（缓存了墙信息的地方用它判断是否过期）
+    public long wallVersion(){
+        return wallVersion.get();
+    }
+
+    // 晚来的旧记录不盖掉同一位置上更新的记录
+    private void logWall(long version, int cell){
+        wallLog.accumulateAndGet((int) (version & (WALL_LOG - 1)), (version << 32) | (cell & 0xFFFFFFFFL), NEWER_ENTRY);
+    }
+
+    /**
+     * 让 target（从这张地图拍的快照，墙跟到了版本 since）的墙跟上当前：只看 since 之后改过墙的格子，
+     * 按格子现在是不是墙改 target 里的这一格，真的变了的格子回调 added / removed（变化之后的 target 已经改好）。
+     * 返回跟到的版本，可能比当前版本小（有版本领了还没记上），下次接着跟；
+     * 记录已经被覆盖（since 太旧）返回 -1，这时 target 可能已经跟了一部分，调用方退回整张快照对比。
+     * 只改 target 的墙，车的格子不管
+     **/
+    public long catchUpWalls(FieldSnapshot target, long since, IntConsumer added, IntConsumer removed){
+        if (target.rows != rows || target.cols != cols) throw new IllegalArgumentException("Snapshot size differs");
+        long current = wallVersion.get();
+        if (current - since > WALL_LOG) return -1;
+        long v = since;
+        while (v < current) {
+            long entry = wallLog.get((int) ((v + 1) & (WALL_LOG - 1)));
+            int lap = (int) (entry >>> 32) - (int) (v + 1);
+            if (lap > 0) return -1; // 被后面的改墙覆盖了
+            if (lap < 0) break;     // 版本领了还没记上
+            int cell = (int) entry, w = cell >>> CELLS_PER_WORD_SHIFT;
+            boolean wall = state(cell) == WALL;
+            if (wall != (stateIn(target.words[w], cell) == WALL)) {
+                target.words[w] = withState(target.words[w], cell, wall ? WALL : EMPTY);
+                if (wall) added.accept(cell); else removed.accept(cell);
             }
-            return false;
-        } finally {
-            unlockCell(r,c);
+            v++;
         }
+        return v;
     }
 
-    /* ===== 双格写：移动车（原子：检查+写入） ===== */
+    /* ===== 双格写：移动车（无锁：先占目标格，再释放源格） ===== */
     public boolean moveCarTo(int fr, int fc, int tr, int tc){
         if (!inBounds(fr,fc) || !inBounds(tr,tc)) return false;
         // 同一格的情况（原地不动）
         if (fr == tr && fc == tc) return true;
 
-        lockCell(tr, tc);
+        int from = cellOf(fr, fc), to = cellOf(tr, tc);
+        int slot = beginWrite();
+        try {
+            return moveInWrite(from, to);
+        } finally {
+            endWrite(slot);
+        }
+    }
+
+    // 打包坐标（Position.pack）的版本，服务器的移动路径用，不建 Position
+    public boolean moveCarTo(long from, CarServer.Direction direction){
+        int fr = Position.rowOf(from), fc = Position.colOf(from);
+        return moveCarTo(fr, fc, fr + direction.dr, fc + direction.dc);
+    }
+
+    public int moveCarAlong(long from, CarServer.Direction direction, int n){
+        return moveCarAlong(Position.rowOf(from), Position.colOf(from), direction.dr, direction.dc, n);
+    }
+
+    // 整个移动在一个写区间里完成，快照不会看到“两格都是车”的中间态
+    private boolean moveInWrite(int from, int to){
+        int wf = from >>> CELLS_PER_WORD_SHIFT, wt = to >>> CELLS_PER_WORD_SHIFT;
+        if (wf == wt) {
+            // 两格在同一个 word 里：一次 CAS 同时完成
+            while (true) {
+                int word = word(wf);
+                if (stateIn(word, from) != CAR)  return false;
+                if (stateIn(word, to) != EMPTY) return false;
+                int moved = withState(withState(word, from, EMPTY), to, CAR);
+                if (words.compareAndSet(wf, word, moved)) {
+                    syncFree(from);
+                    syncFree(to);
+                    return true;
+                }
+                CarMetrics.casRetry();
+            }
+        }
+        if (state(from) != CAR) return false;
+        // 占目标格成功后，目标格只属于本次移动；中间瞬间两格都显示 CAR
+        if (!casCellInWrite(to, EMPTY, CAR)) return false;
+        if (casCellInWrite(from, CAR, EMPTY)) return true;
+        // 源格已经不是车（被别的线程挪走了），撤销占位
+        casCellInWrite(to, CAR, EMPTY);
+        return false;
+    }
+
+    /* ===== 多格写：沿直线一次走多步 ===== */
+    // 从 (fr,fc) 沿 (dr,dc) 方向（单位步长）最多走 n 步，遇到墙/车/边界就停，返回实际走的步数。
+    // 先把前方的空格全部占住，再放掉起点和中间格，车直接落在最后一格；整个过程在一个写区间里
+    public int moveCarAlong(int fr, int fc, int dr, int dc, int n){
+        if (Math.abs(dr) + Math.abs(dc) != 1) throw new IllegalArgumentException("Not a unit step: " + dr + "," + dc);
+        if (!inBounds(fr,fc) || n <= 0) return 0;
+        n = Math.min(n, Math.min(stepsInBounds(fr, dr, rows), stepsInBounds(fc, dc, cols)));
+        if (n == 0) return 0;
+
+        int from = cellOf(fr, fc), step = dr * cols + dc;
+        int slot = beginWrite();
+        try {
+            if (state(from) != CAR) return 0;
+            int k = casRun(from + step, step, n, EMPTY, CAR);
+            if (k == 0) return 0;
+            int last = from + k * step;
+            if (!casCellInWrite(from, CAR, EMPTY)) {
+                // 源格已经不是车，撤销预留
+                casRun(from + step, step, k, CAR, EMPTY);
+                syncRun(from + step, step, k);
+                return 0;
+            }
+            // 中间格只是路过，放回 EMPTY；空格索引里它们一直是空的，同步一下就行
+            if (k > 1) {
+                casRun(from + step, step, k - 1, CAR, EMPTY);
+                syncRun(from + step, step, k - 1);
+            }
+            syncFree(last);
+            return k;
+        } finally {
+            endWrite(slot);
+        }
+    }
+
+    private static int stepsInBounds(int x, int d, int size){
+        return d > 0 ? size - 1 - x : d < 0 ? x : Integer.MAX_VALUE;
+    }
+
+    // 从 start 起每次跨 step 格，把连续的 expect 格改成 update，最多 n 格，遇到别的状态就停；
+    // 落在同一个 word 里的格子（横向移动）一次 CAS 改完。返回改了几格，不维护空格索引
+    private int casRun(int start, int step, int n, int expect, int update){
+        int done = 0;
+        while (done < n) {
+            int first = start + done * step;
+            int w = first >>> CELLS_PER_WORD_SHIFT;
+            int got;
+            boolean blocked;
+            while (true) {
+                int word = word(w), updated = word;
+                got = 0;
+                blocked = false;
+                for (int c = first; done + got < n && c >= 0 && c >>> CELLS_PER_WORD_SHIFT == w; c += step) {
+                    if (stateIn(word, c) != expect) {
+                        blocked = true;
+                        break;
+                    }
+                    updated = withState(updated, c, update);
+                    got++;
+                }
+                if (got == 0 || words.compareAndSet(w, word, updated)) break;
+                CarMetrics.casRetry();
+            }
+            done += got;
+            if (got == 0 || blocked) return done;
+        }
+        return done;
+    }
+
+    private void syncRun(int start, int step, int n){
+        for (int i = 0; i < n; i++) syncFree(start + i * step);
+    }
+
+    /* ===== 批量写：很多车同一步一起走 ===== */
+    private static final byte UNKNOWN = 0, VISITING = 1, MOVED = 2, STAYED = 3;
+
+    /**
+     * from[i] 格的车走到相邻的 to[i] 格（下标 r*cols+c），所有意图一起裁决：
+     *   目标是空格的直接走；目标上的车自己也在这批里并且走成了，就跟着走，一串车一步一起前进；
+     *   一圈车各自走进下一辆的格子（网格上的环至少 4 辆）一起转一格；两辆车对头互换不允许，都不走；
+     *   几辆车抢同一格时源格下标最小的那辆走，其余不走；起点不是车、目标是墙或不动的车的都不走。
+     * 结果只取决于意图和当时的格子，和意图的顺序、线程的时序无关。
+     * 裁决和写入期间挡住其他所有写者（和冻结快照同一个机制），快照要么看到整批之前、要么看到整批之后。
+     * 返回每个意图是否走成；同一个起点出现两次、目标不相邻或在地图外抛 IllegalArgumentException
+     **/
+    public boolean[] moveCars(int[] from, int[] to){
+        int n = from.length;
+        if (to.length != n) throw new IllegalArgumentException("from/to length mismatch: " + n + " vs " + to.length);
+        long[] bySource = new long[n], byTarget = new long[n];
+        for (int i = 0; i < n; i++) {
+            checkStep(from[i], to[i]);
+            bySource[i] = (long) from[i] << 32 | i;
+            byTarget[i] = (long) to[i] << 32 | i;
+            word(from[i] >>> CELLS_PER_WORD_SHIFT); // 映射地图先展开，冻结期间不再等别人加载
+            word(to[i] >>> CELLS_PER_WORD_SHIFT);
+        }
+        Arrays.sort(bySource);
+        Arrays.sort(byTarget);
+        for (int k = 1; k < n; k++)
+            if (bySource[k] >>> 32 == bySource[k - 1] >>> 32)
+                throw new IllegalArgumentException("Two moves from cell " + (bySource[k] >>> 32));
+
+        byte[] status = new byte[n];
+        boolean[] moved = new boolean[n];
+        int slot = beginExclusive();
+        try {
+            for (int i = 0; i < n; i++)
+                if (state(from[i]) != CAR || state(to[i]) == WALL) status[i] = STAYED;
+            // 抢同一格：源格最小的留下
+            for (int k = 0; k < n; ) {
+                int end = k, winner = -1;
+                while (end < n && byTarget[end] >>> 32 == byTarget[k] >>> 32) {
+                    int i = (int) byTarget[end++];
+                    if (status[i] == STAYED) continue;
+                    if (winner < 0 || from[i] < from[winner]) {
+                        if (winner >= 0) status[winner] = STAYED;
+                        winner = i;
+                    } else {
+                        status[i] = STAYED;
+                    }
+                }
+                k = end;
+            }
+            int[] path = new int[n];
+            for (int i = 0; i < n; i++)
+                if (status[i] == UNKNOWN) resolve(i, from, to, bySource, status, path);
+            // 先占链头的空格，再放掉链尾的起点；链中间和环上的格子一直是车，不用写。
+            // 链头（目标格上没有走成的车）没占到——格子在裁决之后被改了——就整条链都不走，起点一个都不放
+            for (int i = 0; i < n; i++)
+                if (status[i] == MOVED && !movedFrom(bySource, status, to[i]) && !casCellInWrite(to[i], EMPTY, CAR))
+                    stayChain(i, from, byTarget, status, path);
+            for (int i = 0; i < n; i++) {
+                if (status[i] != MOVED) continue;
+                moved[i] = true;
+                if (!movedInto(byTarget, status, from[i])) casCellInWrite(from[i], CAR, EMPTY);
+            }
+        } finally {
+            endExclusive(slot);
+        }
+        return moved;
+    }
+
+    private void checkStep(int from, int to){
+        int cells = rows * cols;
+        if (from < 0 || from >= cells || to < 0 || to >= cells)
+            throw new IllegalArgumentException("Cell outside the field: " + from + " -> " + to);
+        int dr = to / cols - from / cols, dc = to % cols - from % cols;
+        if (Math.abs(dr) + Math.abs(dc) != 1) throw new IllegalArgumentException("Not a unit step: " + from + " -> " + to);
+    }
+
+    // 从意图 i 顺着“目标格上那辆车的意图”往下走，直到空格、不动的车、已有结论的意图或者绕回来成环，
+    // 再把结论写回路径上的每个意图
+    private void resolve(int i, int[] from, int[] to, long[] bySource, byte[] status, int[] path){
+        int len = 0, cur = i;
+        byte result;
+        while (true) {
+            if (status[cur] == MOVED || status[cur] == STAYED) {
+                result = status[cur];
+                break;
+            }
+            if (status[cur] == VISITING) {
+                int start = len - 1;
+                while (path[start] != cur) start--;
+                result = len - start > 2 ? MOVED : STAYED; // 两辆对头换位不算环
+                for (int k = start; k < len; k++) status[path[k]] = result;
+                len = start;
+                break;
+            }
+            status[cur] = VISITING;
+            path[len++] = cur;
+            int target = state(to[cur]);
+            if (target == EMPTY) {
+                result = MOVED;
+                break;
+            }
+            int at = target == CAR ? find(bySource, to[cur]) : -1;
+            if (at < 0) {
+                result = STAYED;
+                break;
+            }
+            cur = (int) bySource[at];
+        }
+        for (int k = 0; k < len; k++) status[path[k]] = result;
+    }
+
+    // 意图 i 走不成了：跟在它后面的（目标是它起点的、原本走成的）一个接一个也走不成
+    private static void stayChain(int i, int[] from, long[] byTarget, byte[] status, int[] path){
+        int len = 0;
+        path[len++] = i;
+        while (len > 0) {
+            int cur = path[--len];
+            status[cur] = STAYED;
+            for (int k = find(byTarget, from[cur]); k >= 0 && k < byTarget.length && byTarget[k] >>> 32 == from[cur]; k++) {
+                int next = (int) byTarget[k];
+                if (status[next] == MOVED) path[len++] = next;
+            }
+        }
+    }
+
+    // cell 上的车有没有走成（一个格子最多一个意图）
+    private static boolean movedFrom(long[] bySource, byte[] status, int cell){
+        int at = find(bySource, cell);
+        return at >= 0 && status[(int) bySource[at]] == MOVED;
+    }
+
+    // 有没有走成的意图以 cell 为目标（同一目标最多一个走成）
+    private static boolean movedInto(long[] byTarget, byte[] status, int cell){
+        for (int k = find(byTarget, cell); k >= 0 && k < byTarget.length && byTarget[k] >>> 32 == cell; k++)
+            if (status[(int) byTarget[k]] == MOVED) return true;
+        return false;
+    }
+
+    // sorted 里高 32 位是格子、低 32 位是意图下标；返回格子为 cell 的第一项的位置，没有返回 -1
+    private static int find(long[] sorted, int cell){
+        int lo = 0, hi = sorted.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long c = sorted[mid] >>> 32;
+            if (c < cell) lo = mid + 1;
+            else {
+                if (c == cell) found = mid;
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /* ===== 写区间（seqlock 写端） ===== */
+    private int beginWrite(){
+        int slot = stripeSlot();
+        while (true) {
+            writeCounters.incrementAndGet(slot + BEGIN);
+            if (freezers.get() == 0) return slot;
+            // 有快照在冻结拷贝：撤回这次进入（算作一次空写），等它拷完
+            writeCounters.incrementAndGet(slot + END);
+            for (int spins = 0; freezers.get() != 0; spins++) {
+                if (spins < 100) Thread.onSpinWait(); else Thread.yield();
+            }
+        }
+    }
+    private void endWrite(int slot){
+        writeCounters.incrementAndGet(slot + END);
+    }
+
+    private static int stripeSlot(){
+        return ((int) Thread.currentThread().getId() & (WRITE_STRIPES - 1)) * STRIPE_PAD;
+    }
+
+    // 独占的写区间（moveCars）：像冻结快照那样挡住新写者，等在途的写做完，再自己占一个写区间
+    private int beginExclusive(){
+        exclusiveWriter.lock();
+        freezers.incrementAndGet();
+        long[] counters = new long[WRITE_STRIPES];
+        for (int spins = 0; !readCounters(counters); spins++) {
+            if (spins < 100) Thread.onSpinWait(); else Thread.yield();
+        }
+        int slot = stripeSlot();
+        writeCounters.incrementAndGet(slot + BEGIN);
+        return slot;
+    }
+    private void endExclusive(int slot){
+        writeCounters.incrementAndGet(slot + END);
+        freezers.decrementAndGet();
+        exclusiveWriter.unlock();
+    }
+
+    // 读所有段的开始计数，有段开始数和结束数不等（写在进行）返回 false。
+    // 每段先读结束再读开始：两者相等说明读结束时已经开始的写都做完了，中间也没有新写开始
+    private boolean readCounters(long[] into){
+        for (int i = 0; i < WRITE_STRIPES; i++) {
+            long end = writeCounters.get(i * STRIPE_PAD + END);
+            long begin = writeCounters.get(i * STRIPE_PAD + BEGIN);
+            if (begin != end) return false;
+            into[i] = begin;
+        }
+        return true;
+    }
+    // 拷贝之后核对：开始计数都没变，说明拷贝期间没有新写开始
+    private boolean countersUnchanged(long[] before){
+        for (int i = 0; i < WRITE_STRIPES; i++)
+            if (writeCounters.get(i * STRIPE_PAD + BEGIN) != before[i]) return false;
+        return true;
+    }
+    private static long versionOf(long[] counters){
+        long sum = 0;
+        for (long v : counters) sum += v;
+        return sum;
+    }
+
+    // 到目前为止完成的写操作数（有写在进行时是近似值）；两次相同说明格子没变过
+    public long version(){
+        long sum = 0;
+        for (int i = 0; i < WRITE_STRIPES; i++) sum += writeCounters.get(i * STRIPE_PAD + END);
+        return sum;
+    }
+
+    /* ===== 快照：整张地图的一致拷贝，不拿任何格子锁 ===== */
+    public FieldSnapshot snapshot(){
+        return snapshot(null);
+    }
+
+    // reuse 尺寸相同时复用它的缓冲区，渲染循环里每帧不用重新分配
+    public FieldSnapshot snapshot(FieldSnapshot reuse){
+        FieldSnapshot target = reuse != null && reuse.rows == rows && reuse.cols == cols
+                ? reuse : new FieldSnapshot(rows, cols, new int[words.length()]);
+        loadAllTiles();
+        boolean timed = CarMetrics.enabled();
+        long start = timed ? System.nanoTime() : 0;
+        long[] counters = new long[WRITE_STRIPES];
+        // 先乐观地拷：拷贝前没有写在进行、拷完开始计数没变，说明期间没有写
+        for (int attempt = 0; attempt < OPTIMISTIC_SNAPSHOTS; attempt++) {
+            if (!readCounters(counters)) {
+                Thread.onSpinWait();
+                continue;
+            }
+            copyWords(target.words);
+            VarHandle.acquireFence();
+            if (countersUnchanged(counters)) {
+                target.version = versionOf(counters);
+                if (timed) CarMetrics.snapshot(System.nanoTime() - start, false);
+                return target;
+            }
+        }
+        // 写太频繁：短暂挡住新写者，等在途的写完成后再拷
+        freezers.incrementAndGet();
         try {
-            if (cells[fr][fc] != CellState.CAR)   return false;
-            if (cells[tr][tc] != CellState.EMPTY) return false;
+            // 批量移动（moveCars）不受冻结限制，拷的时候它可能正好在写，所以拷完还要再核对一次
+            do {
+                for (int spins = 0; !readCounters(counters); spins++) {
+                    if (spins < 100) Thread.onSpinWait(); else Thread.yield();
+                }
+                copyWords(target.words);
+                VarHandle.acquireFence();
+            } while (!countersUnchanged(counters));
+            target.version = versionOf(counters);
+            return target;
+        } finally {
+            freezers.decrementAndGet();
+            if (timed) CarMetrics.snapshot(System.nanoTime() - start, true);
+        }
+    }
 
-            // 原子更新
-            cells[fr][fc] = CellState.EMPTY;
-            cells[tr][tc] = CellState.CAR;
-            return true;
+    /* ===== 区域里的墙：界面只读可见部分，不拷整张图 ===== */
+    // 对 [r0,r1] x [c0,c1]（闭区间，超出地图的部分忽略）里的每个墙格调 onWall(r*cols+c)。
+    // 期间挡住加墙/拆墙，看到的是同一时刻的墙；映射地图上没展开的块直接读映射，不触发加载。
+    // 返回那一时刻的墙版本：WallDelta.version 不超过它的增量都已经在看到的墙里了
+    public long forEachWall(int r0, int c0, int r1, int c1, IntConsumer onWall){
+        r0 = Math.max(0, r0); c0 = Math.max(0, c0);
+        r1 = Math.min(rows - 1, r1); c1 = Math.min(cols - 1, c1);
+        wallReaders.writeLock().lock();
+        try {
+            if (r0 > r1 || c0 > c1) return wallVersion.get();
+            for (int r = r0; r <= r1; r++) {
+                int from = r * cols + c0, to = r * cols + c1;
+                for (int w = from >>> CELLS_PER_WORD_SHIFT; w <= to >>> CELLS_PER_WORD_SHIFT; w++) {
+                    int base = w << CELLS_PER_WORD_SHIFT;
+                    for (int bits = wallBits(w); bits != 0; bits &= bits - 1) {
+                        int cell = base + (Integer.numberOfTrailingZeros(bits) >>> 1);
+                        if (cell >= from && cell <= to) onWall.accept(cell);
+                    }
+                }
+            }
+            return wallVersion.get();
         } finally {
-            unlockCell(tr, tc);
+            wallReaders.writeLock().unlock();
         }
     }
 
+    // word 里是墙（2 bit 为 10）的格子，每格一位放在该格的低位上；没展开的块墙还和映射里一样，直接读映射
+    private int wallBits(int w){
+        int word = tileStates != null && tileStates.get(w >>> TILE_WORD_SHIFT) != TILE_LOADED
+                ? mappedWalls.wallWord(w) : words.get(w);
+        return (word >>> 1) & ~word & 0x55555555;
+    }
+
+    /* ===== 映射地图的懒加载 ===== */
+    // 抢到的线程把这一块的墙从映射里展开，并从空格索引里去掉；其他线程等它做完
+    private void loadTile(int tile){
+        if (tileStates.compareAndSet(tile, TILE_UNLOADED, TILE_LOADING)) {
+            int from = tile << TILE_WORD_SHIFT, to = Math.min(words.length(), from + (1 << TILE_WORD_SHIFT));
+            for (int w = from; w < to; w++) {
+                int walls = mappedWalls.wallWord(w);
+                if (walls == 0) continue;
+                words.set(w, walls);
+                for (int bits = walls; bits != 0; bits &= bits - 1)
+                    freeCells.update((w << CELLS_PER_WORD_SHIFT) + (Integer.numberOfTrailingZeros(bits) >>> 1), false);
+            }
+            tileStates.set(tile, TILE_LOADED);
+            return;
+        }
+        for (int spins = 0; tileStates.get(tile) != TILE_LOADED; spins++) {
+            if (spins < 100) Thread.onSpinWait(); else Thread.yield();
+        }
+    }
+
+    private void loadAllTiles(){
+        if (tileStates == null) return;
+        for (int tile = 0; tile < tileStates.length(); tile++)
+            if (tileStates.get(tile) != TILE_LOADED) loadTile(tile);
+    }
+
+    private void copyWords(int[] into){
+        for (int i = 0; i < into.length; i++) into[i] = words.getPlain(i);
+    }
+
 
 }
@@ -0,0 +1,66 @@
+package car;
+
+import java.util.function.IntConsumer;
+
+/**
+ * FieldMatrix 某一时刻的一致拷贝（FieldMatrix.snapshot），和原地图一样每格 2 bit。
+ * 只读，给渲染、统计、持久化用，读的时候不碰原地图。
+ **/
+public class FieldSnapshot {
+    public final int rows;
+    public final int cols;
+    final int[] words;
+    long version;
+    private static final int WALL_BITS = 0xAAAAAAAA; // 每格 2 bit 里的高位
+
+    FieldSnapshot(int rows, int cols, int[] words){
+        this.rows = rows;
+        this.cols = cols;
+        this.words = words;
+    }
+
+    // 拍快照时 FieldMatrix.version() 的值
+    public long getVersion(){ return version; }
+
+    private int state(int r, int c){
+        int cell = r * cols + c;
+        return FieldMatrix.stateIn(words[cell >>> FieldMatrix.CELLS_PER_WORD_SHIFT], cell);
+    }
+
+    public FieldMatrix.CellState getCellState(int r, int c){
+        if (r < 0 || r >= rows || c < 0 || c >= cols) throw new IndexOutOfBoundsException();
+        return FieldMatrix.STATES[state(r, c)];
+    }
+
+    public boolean isWall(int r, int c){ return state(r, c) == FieldMatrix.WALL; }
+    public boolean isCar(int r, int c){ return state(r, c) == FieldMatrix.CAR; }
+    public boolean isEmpty(int r, int c){ return state(r, c) == FieldMatrix.EMPTY; }
+
+    public int countCars(){ return count(FieldMatrix.CAR); }
+    public int countWalls(){ return count(FieldMatrix.WALL); }
+
+    /**
+     * 和更早的快照 before（同尺寸）比，哪些格子变成了墙、哪些墙没了，回调给出格子下标 r*cols+c。
+     * 按 word 比较：没变的 word 直接跳过，只看每格的高位（WALL 是 2 位里唯一高位为 1 的状态）。
+     **/
+    public void diffWalls(FieldSnapshot before, IntConsumer added, IntConsumer removed){
+        if (before.rows != rows || before.cols != cols) throw new IllegalArgumentException("Snapshot size differs");
+        for (int w = 0; w < words.length; w++) {
+            int now = words[w] & WALL_BITS, was = before.words[w] & WALL_BITS;
+            int changed = now ^ was;
+            while (changed != 0) {
+                int bit = Integer.numberOfTrailingZeros(changed);
+                changed &= changed - 1;
+                int cell = (w << FieldMatrix.CELLS_PER_WORD_SHIFT) + (bit >>> 1);
+                if ((now & (1 << bit)) != 0) added.accept(cell); else removed.accept(cell);
+            }
+        }
+    }
+
+    private int count(int state){
+        int n = 0;
+        for (int cell = 0, cells = rows * cols; cell < cells; cell++)
+            if (FieldMatrix.stateIn(words[cell >>> FieldMatrix.CELLS_PER_WORD_SHIFT], cell) == state) n++;
+        return n;
+    }
+}
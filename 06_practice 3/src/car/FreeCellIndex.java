@@ -0,0 +1,149 @@
+package car;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 空格子的分层位图索引：第 0 层每格 1 bit（1 = EMPTY），
+ * 上一层每 bit 表示下一层对应的 long 是否非 0，一直汇总到只剩一个 long。
+ * 找空格只需从顶层往下走几层，和地图大小基本无关。
+ *
+ * 索引只是提示：FieldMatrix 的格子状态才是真相，分配时仍然要对格子做 CAS，
+ * 失败后由 FieldMatrix.syncFree 把对应 bit 纠正再重试。
+ **/
+class FreeCellIndex {
+    private final AtomicLongArray[] levels; // levels[0] 是格子位图，最后一层只有一个 long
+    private final int cellCount;
+
+    FreeCellIndex(int cellCount){
+        this.cellCount = cellCount;
+        int depth = 1;
+        for (long n = wordsFor(cellCount); n > 1; n = wordsFor(n)) depth++;
+        levels = new AtomicLongArray[depth];
+        long bits = cellCount;
+        for (int k = 0; k < depth; k++) {
+            int words = (int) wordsFor(bits);
+            levels[k] = new AtomicLongArray(Math.max(words, 1));
+            // 初始时全部为空：把前 bits 个 bit 置 1
+            for (int w = 0; w < words; w++) {
+                long remaining = bits - ((long) w << 6);
+                levels[k].set(w, remaining >= 64 ? -1L : (1L << remaining) - 1);
+            }
+            bits = words;
+        }
+    }
+
+    private static long wordsFor(long bits){
+        return (bits + 63) >>> 6;
+    }
+
+    /* ===== 维护：格子状态变化后调用，isFree 由调用方按最新状态给出 ===== */
+    void update(int cell, boolean isFree){
+        AtomicLongArray bits = levels[0];
+        int w = cell >>> 6;
+        long mask = 1L << (cell & 63);
+        long prev, next;
+        do {
+            prev = bits.get(w);
+            next = isFree ? prev | mask : prev & ~mask;
+            if (prev == next) return;
+        } while (!bits.compareAndSet(w, prev, next));
+        // 只有 word 在 0 / 非 0 之间切换时才需要改上一层
+        if ((prev == 0) != (next == 0)) repairParent(0, w);
+    }
+
+    // 把上一层汇总 bit 校正为 levels[k][w] 的实际情况；写完再核对一次子 word，
+    // 这样并发更新交错时最后写的人总能看到最新状态，不会留下过期的 0
+    private void repairParent(int k, int w){
+        while (k + 1 < levels.length) {
+            boolean nonZero = levels[k].get(w) != 0;
+            AtomicLongArray parent = levels[k + 1];
+            int pw = w >>> 6;
+            long mask = 1L << (w & 63);
+            long prev = parent.get(pw);
+            long next = nonZero ? prev | mask : prev & ~mask;
+            if (prev == next) return;
+            if (!parent.compareAndSet(pw, prev, next)) continue;
+            if ((levels[k].get(w) != 0) != nonZero) continue; // 期间又变了，再校正一次
+            if ((prev == 0) == (next == 0)) return;
+            k++;
+            w = pw;
+        }
+    }
+
+    boolean isEmpty(){
+        return levels[levels.length - 1].get(0) == 0;
+    }
+
+    /* ===== 查询：返回候选空格下标，没有返回 -1 ===== */
+    int first(){
+        return descend(false);
+    }
+
+    int random(){
+        return descend(true);
+    }
+
+    private int descend(boolean random){
+        ThreadLocalRandom rnd = random ? ThreadLocalRandom.current() : null;
+        retry:
+        for (int attempt = 0; attempt < 64; attempt++) {
+            int index = 0;
+            for (int k = levels.length - 1; k >= 0; k--) {
+                long word = levels[k].get(index);
+                if (word == 0) {
+                    if (k == levels.length - 1) return -1;
+                    repairParent(k, index);
+                    continue retry;
+                }
+                index = (index << 6) + pickBit(word, rnd);
+            }
+            if (index < cellCount) return index;
+        }
+        return -1;
+    }
+
+    // 随机模式：把 word 随机旋转后取最低位，近似均匀地在已置位的 bit 中选一个
+    private static int pickBit(long word, ThreadLocalRandom rnd){
+        if (rnd == null) return Long.numberOfTrailingZeros(word);
+        int rot = rnd.nextInt(64);
+        return (Long.numberOfTrailingZeros(Long.rotateRight(word, rot)) + rot) & 63;
+    }
+
+    boolean isFree(int cell){
+        return (levels[0].get(cell >>> 6) & (1L << (cell & 63))) != 0;
+    }
+
+    // [from, to) 里第一个置位的格子下标，没有返回 -1；按 long 跳着找
+    int nextFree(int from, int to){
+        if (from >= to) return -1;
+        AtomicLongArray bits = levels[0];
+        int w = from >>> 6;
+        long word = bits.get(w) & (-1L << (from & 63));
+        while (true) {
+            if (word != 0) {
+                int cell = (w << 6) + Long.numberOfTrailingZeros(word);
+                return cell < to ? cell : -1;
+            }
+            if (++w << 6 >= to) return -1;
+            word = bits.get(w);
+        }
+    }
+
+    // [from, to) 里最后一个置位的格子下标，没有返回 -1
+    int prevFree(int from, int to){
+        if (from >= to) return -1;
+        AtomicLongArray bits = levels[0];
+        int last = to - 1;
+        int w = last >>> 6;
+        long word = bits.get(w) & (-1L >>> (63 - (last & 63)));
+        while (true) {
+            if (word != 0) {
+                int cell = (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+                return cell >= from ? cell : -1;
+            }
+            if (--w < 0 || (w << 6) + 63 < from) return -1;
+            word = bits.get(w);
+        }
+    }
+}
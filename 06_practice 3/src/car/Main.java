@@ -1,11 +1,23 @@
 package car;
 
 import car.command.*;
+import car.event.CarEventBus;
+import car.event.SlowConsumerPolicy;
+import car.journal.EventJournal;
+import car.metrics.CarMetrics;
+import car.route.RouteController;
+import car.route.Router;
+import car.sim.RandomWalk;
+import car.sim.Simulation;
+import car.sim.TiledSimulation;
+import car.util.CarExecutors;
 
 import java.awt.*;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
 import java.util.Random;
 
 
@@ -14,18 +26,124 @@ import java.util.Random;
  **/
 public class Main {
     public static void main(String[] args) throws Exception{
-        InputStream is = CarPainter.class.getClassLoader().getResourceAsStream("field.txt");
-        FieldMatrix fm = FieldMatrix.load(new InputStreamReader(is));
+        // -Dfield=xxx.bin 打开二进制地图（BinaryField 转换得到，映射后按块懒加载），否则读自带的 field.txt
+        String fieldFile = System.getProperty("field");
+        FieldMatrix fm;
+        if (fieldFile != null && fieldFile.endsWith(".bin")) {
+            fm = BinaryField.map(Paths.get(fieldFile));
+        } else {
+            InputStream is = fieldFile != null ? new FileInputStream(fieldFile)
+                    : CarPainter.class.getClassLoader().getResourceAsStream("field.txt");
+            fm = FieldMatrix.load(new InputStreamReader(is));
+        }
         //FieldMatrix fm = new FieldMatrix(10,10);
+        // 指标默认关着，可以在 jconsole 里（car:type=Metrics）打开；-Dmetrics=10 直接打开并每 10 秒打印一次
+        CarMetrics.registerMBean();
+        Integer metricsPeriod = Integer.getInteger("metrics");
+        if (metricsPeriod != null) {
+            CarMetrics.setEnabled(true);
+            CarMetrics.startDump(metricsPeriod, System.out);
+        }
         CarPainter p = new CarPainter(fm);
-        BasicCarServer carServer = new BasicCarServer(fm, p);
-        new Thread(carServer.wallTask()).start(); // ////
+        // 事件走异步总线，移动线程不再直接调画板；画板只维护格子占用，用 BLOCK 保证不丢
+        CarEventBus events = new CarEventBus(8192);
+        events.subscribe(p, SlowConsumerPolicy.BLOCK);
+        // -Djournal=run.journal 把事件记进日志，之后用 car.journal.JournalReplay 重放
+        String journalFile = System.getProperty("journal");
+        if (journalFile != null) {
+            EventJournal journal = new EventJournal(fm, Paths.get(journalFile));
+            events.subscribe(journal, SlowConsumerPolicy.BLOCK);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try { journal.close(); } catch (IOException e) { e.printStackTrace(); }
+            }));
+        }
+        BasicCarServer carServer = new BasicCarServer(fm, events);
+        carServer.setAllocationPolicy(FieldMatrix.AllocationPolicy.RANDOM_FREE);
+        // -DwallChurn=每格每秒的墙变化次数，-DwallThreads=随机器个数（各管一段行）；不给就是原来的节奏
+        String wallChurn = System.getProperty("wallChurn");
+        if (wallChurn != null) {
+            for (Runnable task : carServer.wallTasks(Integer.getInteger("wallThreads", 1), Double.parseDouble(wallChurn)))
+                new Thread(task).start();
+        } else {
+            new Thread(carServer.wallTask()).start(); // ////
+        }
         //Car car = carServer.createCar();
 
 //        is = CarPainter.class.getClassLoader().getResourceAsStream("script.txt");
 //        Script script = Script.load(new InputStreamReader(is), car);
 //        script.execute();
 
+        String[] names = {"Alex", "Petr", "Nata", "Boris"};
+        String mode = args.length > 0 ? args[0] : "sim";
+        if ("sim".equals(mode)) {
+            // 默认：逻辑时钟调度，所有车共用一个小线程池；-DgroupMoves 时每个 tick 到期的车一起走（见 CarServer.moveCars）
+            Simulation simulation = new Simulation(Runtime.getRuntime().availableProcessors());
+            if (Boolean.getBoolean("groupMoves")) simulation.setGroupMoves(carServer);
+            simulation.start();
+            for (String name : names) {
+                Car car = carServer.createCar();
+                car.setName(name);
+                simulation.register(car, new RandomWalk());
+                Thread.sleep(1000);
+            }
+            return;
+        }
+        if ("tiled".equals(mode)) {
+            // tiled：地图分块，每块归一个线程（见 TiledSimulation），-DtileSize=块边长，默认 64
+            TiledSimulation simulation = new TiledSimulation(fm, Integer.getInteger("tileSize", 64),
+                    Runtime.getRuntime().availableProcessors());
+            simulation.start();
+            for (String name : names) {
+                Car car = carServer.createCar();
+                car.setName(name);
+                simulation.register(car, new RandomWalk());
+                Thread.sleep(1000);
+            }
+            return;
+        }
+        if ("route".equals(mode)) {
+            // route：几个固定目标点，车按最短路开过去，到了换下一个；同一目标的车共用距离场
+            Router router = new Router(fm);
+            Random random = new Random();
+            Position[] goals = new Position[4];
+            for (int i = 0; i < goals.length; i++) {
+                int r, c;
+                do { r = random.nextInt(fm.rows); c = random.nextInt(fm.cols); }
+                while (fm.getCellState(r, c) == FieldMatrix.CellState.WALL);
+                goals[i] = new Position(r, c);
+            }
+            Simulation simulation = new Simulation(Runtime.getRuntime().availableProcessors());
+            simulation.start();
+            for (String name : names) {
+                Car car = carServer.createCar();
+                car.setName(name);
+                simulation.register(car, new RouteController(router, () -> goals[random.nextInt(goals.length)]));
+                Thread.sleep(1000);
+            }
+            return;
+        }
+        if ("script".equals(mode)) {
+            // script [文件]：边读边执行，不给文件就从标准输入读（可以接生成器的管道）
+            InputStream in = args.length > 1 ? new FileInputStream(args[1]) : System.in;
+            Car car = carServer.createCar();
+            car.setName(names[0]);
+            Script.stream(new InputStreamReader(in), car).execute();
+            return;
+        }
+        if ("fleet".equals(mode)) {
+            // fleet [文件]：每行 "车号 关键字 参数"，车号第一次出现时建车，各车并行执行
+            InputStream in = args.length > 1 ? new FileInputStream(args[1]) : System.in;
+            FleetScriptRunner runner = new FleetScriptRunner(Runtime.getRuntime().availableProcessors() * 4, 4096);
+            FleetScriptRunner.Report report = runner.execute(new InputStreamReader(in), id -> {
+                Car car = carServer.createCar();
+                car.setName(String.valueOf(id));
+                return car;
+            });
+            System.out.println(report);
+            runner.shutdown();
+            return;
+        }
+
         class CarMover implements Runnable{
             private final String name;
 
@@ -34,6 +152,8 @@ public class Main {
             }
             @Override
             public void run(){
+                // -DwaitForCell=毫秒：被挡住时等格子空出来（BasicCarServer.moveCarToWhenFree），等不到再换方向
+                Long waitForCell = Long.getLong("waitForCell");
                 Random random = new Random();
                 Car car = carServer.createCar();
                 car.setName(name);
@@ -41,7 +161,7 @@ public class Main {
                 while(true){
                     boolean result;
                     try {
-                        result = car.moveTo(direction);
+                        result = waitForCell == null ? car.moveTo(direction) : car.moveToWhenFree(direction, waitForCell);
                     }catch(ArrayIndexOutOfBoundsException e){
                         result = false;
                     }
@@ -51,13 +171,11 @@ public class Main {
                 }
             }
         }
-        new Thread(new CarMover("Alex")).start(); //car1
-        Thread.sleep(1000);
-        new Thread(new CarMover("Petr")).start(); //car2
-        Thread.sleep(1000);
-        new Thread(new CarMover("Nata")).start(); //car3
-        Thread.sleep(1000);
-        new Thread(new CarMover("Boris")).start(); //car3
-
+        // threads：一车一个平台线程；virtual：一车一个虚拟线程
+        if ("virtual".equals(mode)) carServer.setBehaviorExecutor(CarExecutors.virtualThreads());
+        for (String name : names) {
+            carServer.runBehavior(new CarMover(name));
+            Thread.sleep(1000);
+        }
     }
 }
@@ -0,0 +1,57 @@
+package car;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 车的“格子 + 位置”一起改的区间（BasicCarServer 的走一步、建车、删车都在里面改完格子和 CarStore 里的位置）。
+ * 检查点和批量移动关上闸门、等区间里的都出来，这时地图上的车格和所有车的位置正好对得上。
+ * 计数和 FieldMatrix 的写计数一样：按线程分段，每段一个进入计数、一个离开计数，相等表示这段没人在里面；
+ * 关门期间想进的线程挂在关门锁上，不空转。
+ * 区间里不能再进区间，也不能通知监听者；关门的线程在开门前不能进区间
+ **/
+final class MoveGate {
+    private static final int STRIPES = 64, STRIPE_PAD = 16, ENTER = 0, LEAVE = 1;
+
+    private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIPE_PAD);
+    private final ReentrantLock closing = new ReentrantLock(); // 关门的线程一直拿着，同时只有一个
+    private volatile boolean closed;
+
+    int enter(){
+        int slot = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_PAD;
+        while (true) {
+            counters.incrementAndGet(slot + ENTER);
+            if (!closed) return slot;
+            // 门关着：撤回这次进入，等开门
+            counters.incrementAndGet(slot + LEAVE);
+            closing.lock();
+            closing.unlock();
+        }
+    }
+
+    void leave(int slot){
+        counters.incrementAndGet(slot + LEAVE);
+    }
+
+    // 关门并等区间里的都出来；之后到 open() 之前没有车的格子和位置在变
+    void close(){
+        closing.lock();
+        closed = true;
+        for (int i = 0, spins = 0; i < STRIPES; ) {
+            // 先读离开再读进入：相等说明读离开时在里面的都出来了，中间也没有新进来的
+            long left = counters.get(i * STRIPE_PAD + LEAVE);
+            if (counters.get(i * STRIPE_PAD + ENTER) == left) {
+                i++;
+            } else if (spins++ < 100) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    void open(){
+        closed = false;
+        closing.unlock();
+    }
+}
@@ -1,5 +1,6 @@
 package car;
 
+// 热点路径上不建 Position：坐标打包成一个 long（高 32 位行、低 32 位列），用下面的静态方法读写
 public class Position {
     public final int row;
     public final int col;
@@ -8,14 +9,34 @@ public class Position {
     };
 
     public Position move(CarServer.Direction direction) {
-        switch(direction){
-            case UP: return new Position(row - 1,col);
-            case DOWN: return new Position(row + 1,col);
-            case LEFT: return new Position(row ,col - 1);
-            case RIGHT: return new Position(row ,col + 1);
-            default:throw new RuntimeException("Position move error");
-        }
+        return move(direction, 1);
     }
+    // 沿 direction 走 n 步
+    public Position move(CarServer.Direction direction, int n) {
+        return new Position(row + direction.dr * n, col + direction.dc * n);
+    }
+
+    /* ===== 打包的坐标 ===== */
+    public static long pack(int row, int col){
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    public static int rowOf(long packed){ return (int) (packed >> 32); }
+    public static int colOf(long packed){ return (int) packed; }
+
+    // 沿 direction 走 n 步；行列分开算，列越界成负数也不会借位到行
+    public static long move(long packed, CarServer.Direction direction, int n){
+        return pack(rowOf(packed) + direction.dr * n, colOf(packed) + direction.dc * n);
+    }
+
+    public static Position of(long packed){
+        return new Position(rowOf(packed), colOf(packed));
+    }
+
+    public long packed(){
+        return pack(row, col);
+    }
+
     @Override
     public String toString(){
         return "[Position: col="+col+" row="+row+"]";
@@ -0,0 +1,43 @@
+package car;
+
+import java.util.function.IntConsumer;
+
+/**
+ * 一批墙变化的结果（FieldMatrix.changeWalls）：哪些格子成了墙、哪些墙没了，
+ * 格子下标是 r*cols+c，和 FieldSnapshot.diffWalls 一致。只列真正变了的格子。
+ * 同一批里一个格子可能先加后拆，所以要按先 added 后 removed 的顺序应用。数组是内部的，只读不改。
+ **/
+public final class WallDelta {
+    private static final int[] NONE = new int[0];
+
+    public final int cols;
+    // 这一批改完之后的墙版本（FieldMatrix.wallVersion）；和 forEachWall 的返回值比，判断这批是否已经被读到
+    public final long version;
+    private final int[] added;
+    private final int[] removed;
+
+    public WallDelta(int cols, int[] added, int[] removed, long version){
+        this.cols = cols;
+        this.version = version;
+        this.added = added == null ? NONE : added;
+        this.removed = removed == null ? NONE : removed;
+    }
+
+    public int[] getAdded(){ return added; }
+    public int[] getRemoved(){ return removed; }
+    public int size(){ return added.length + removed.length; }
+    public boolean isEmpty(){ return size() == 0; }
+
+    public int rowOf(int cell){ return cell / cols; }
+    public int colOf(int cell){ return cell % cols; }
+
+    public void forEach(IntConsumer onAdded, IntConsumer onRemoved){
+        for (int cell : added) onAdded.accept(cell);
+        for (int cell : removed) onRemoved.accept(cell);
+    }
+
+    @Override
+    public String toString(){
+        return "[WallDelta: +" + added.length + " -" + removed.length + "]";
+    }
+}
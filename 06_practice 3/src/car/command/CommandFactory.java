@@ -0,0 +1,9 @@
+package car.command;
+
+import car.Car;
+
+// 由脚本里的一行（关键字之后的参数）创建命令
+@FunctionalInterface
+public interface CommandFactory {
+    Command create(Car car, String parameter);
+}
@@ -0,0 +1,81 @@
+package car.command;
+
+import car.Car;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 脚本关键字 -> 命令工厂。commands.txt 里的类名只在启动时解析一次：
+ * 找到 (Car, String) 构造器，用 LambdaMetafactory 生成一个直接 new 的工厂，
+ * 之后每行脚本只是一次 map 查找加一次普通调用，不再走反射。
+ **/
+public class CommandRegistry {
+    private static final MethodType FACTORY_TYPE = MethodType.methodType(Command.class, Car.class, String.class);
+    private static final Map<String, CommandFactory> factories = new ConcurrentHashMap<>();
+
+    static{
+        Properties classnames = new Properties();
+        try (InputStream is = CommandRegistry.class.getClassLoader().getResourceAsStream("commands.txt")) {
+            if (is != null) classnames.load(is);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (String keyword : classnames.stringPropertyNames()) {
+            try {
+                register(keyword, Class.forName(classnames.getProperty(keyword).trim()));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                System.err.println("Cannot register command " + keyword + ": " + e);
+            }
+        }
+    }
+
+    /* ===== 注册 ===== */
+    public static void register(String keyword, CommandFactory factory){
+        factories.put(keyword, factory);
+    }
+
+    public static void register(String keyword, Class<?> commandClass) throws ReflectiveOperationException {
+        register(keyword, compile(commandClass));
+    }
+
+    // 没有这个关键字返回 null
+    public static CommandFactory lookup(String keyword){
+        return factories.get(keyword);
+    }
+
+    /* ===== 工具方法 ===== */
+    private static CommandFactory compile(Class<?> commandClass) throws ReflectiveOperationException {
+        if (!Command.class.isAssignableFrom(commandClass))
+            throw new IllegalArgumentException(commandClass.getName() + " is not a Command");
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle constructor = lookup.findConstructor(commandClass,
+                MethodType.methodType(void.class, Car.class, String.class));
+        try {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "create",
+                    MethodType.methodType(CommandFactory.class), FACTORY_TYPE,
+                    constructor, constructor.type());
+            return (CommandFactory) site.getTarget().invoke();
+        } catch (Throwable e) {
+            // 生成失败（比如类对这里不可见）就直接调 MethodHandle，仍然比每次反射快
+            MethodHandle handle = constructor.asType(FACTORY_TYPE);
+            return (car, parameter) -> {
+                try {
+                    return (Command) handle.invokeExact(car, parameter);
+                } catch (RuntimeException | Error ex) {
+                    throw ex;
+                } catch (Throwable ex) {
+                    throw new IllegalStateException(ex);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package car.command;
+
+import car.Car;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * 多车脚本：每行 "车号 关键字 参数"，例如 "17 DOWN 3"。
+ * 每辆车一个信箱，同一辆车的命令按脚本顺序一条条执行；不同的车在线程池里并行。
+ * 解析边读边派发，未执行完的命令数受 maxPending 限制，满了解析就等（背压）。
+ * 同一辆车出现在几个同时运行的脚本里时，也共用一个信箱，不会并发执行。
+ * 信箱取空、最后一条命令执行完就从表里摘掉，车多、脚本长期跑也不会越积越多；之后再有命令时重新建一个。
+ **/
+public class FleetScriptRunner {
+    // 一个信箱一次最多连续执行多少条，之后重新排队，给别的车让出线程
+    private static final int DRAIN_BATCH = 64;
+
+    private final Executor executor;
+    private final ExecutorService ownPool; // 自己建的线程池，shutdown 时关掉
+    private final Semaphore pending;
+    private final Map<Car, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    // 用固定大小的线程池执行
+    public FleetScriptRunner(int threads, int maxPending){
+        this(Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "fleet-script");
+            t.setDaemon(true);
+            return t;
+        }), maxPending, true);
+    }
+
+    // 用调用方给的 executor 执行，例如 CarExecutors.virtualThreads()
+    public FleetScriptRunner(Executor executor, int maxPending){
+        this(executor, maxPending, false);
+    }
+
+    private FleetScriptRunner(Executor executor, int maxPending, boolean own){
+        if (maxPending < 1) throw new IllegalArgumentException("maxPending must be positive");
+        this.executor = executor;
+        this.ownPool = own ? (ExecutorService) executor : null;
+        this.pending = new Semaphore(maxPending);
+    }
+
+    public void shutdown(){
+        if (ownPool != null) ownPool.shutdown();
+    }
+
+    /**
+     * 在后台线程解析并派发脚本，立即返回；全部命令执行完后 future 给出统计。
+     * cars 把脚本里的车号换成车（例如按需 createCar），每个车号只调用一次。
+     * 解析出错时 future 异常结束，已派发的命令照常执行完。
+     **/
+    public CompletableFuture<Report> start(InputStreamReader isr, IntFunction<Car> cars){
+        Run run = new Run();
+        Thread parser = new Thread(() -> run.parse(isr, cars), "fleet-script-parser");
+        parser.setDaemon(true);
+        parser.start();
+        return run.done;
+    }
+
+    // 阻塞执行，解析出错打印出来并返回 null（和 Script.load 一样）
+    public Report execute(InputStreamReader isr, IntFunction<Car> cars){
+        try {
+            return start(isr, cars).join();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /* ===== 一次脚本运行 ===== */
+    private class Run {
+        final CompletableFuture<Report> done = new CompletableFuture<>();
+        final long started = System.nanoTime();
+        // 未完成的命令数，另加 1 表示解析还没结束
+        final AtomicLong outstanding = new AtomicLong(1);
+        final LongAdder executed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        int carCount;
+
+        void parse(InputStreamReader isr, IntFunction<Car> cars){
+            Map<Integer, Car> resolved = new HashMap<>();
+            try (InputStreamReader in = isr) {
+                ScriptTokenizer tokens = new ScriptTokenizer(in);
+                while (tokens.nextLine()) {
+                    int id = parseId(tokens);
+                    Car car = resolved.get(id);
+                    if (car == null) {
+                        car = cars.apply(id);
+                        if (car == null) throw new IllegalArgumentException("No car " + id + " at line " + tokens.getLine());
+                        resolved.put(id, car);
+                    }
+                    Command command = Script.parseCommand(tokens, tokens.next(), car);
+                    pending.acquire();
+                    outstanding.incrementAndGet();
+                    post(car, new Task(command, this));
+                }
+                carCount = resolved.size();
+            } catch (IOException | RuntimeException e) {
+                done.completeExceptionally(e);
+            } catch (InterruptedException e) {
+                done.completeExceptionally(e);
+                Thread.currentThread().interrupt();
+            }
+            finishOne();
+        }
+
+        void run(Command command){
+            try {
+                if (!command.execute()) failed.increment();
+            } catch (RuntimeException e) {
+                failed.increment();
+                e.printStackTrace();
+            }
+            executed.increment();
+            pending.release();
+            finishOne();
+        }
+
+        private void finishOne(){
+            if (outstanding.decrementAndGet() == 0)
+                done.complete(new Report(executed.sum(), failed.sum(), carCount, System.nanoTime() - started));
+        }
+    }
+
+    private static int parseId(ScriptTokenizer tokens) throws IOException {
+        String token = tokens.next();
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad car id '" + token + "' at line " + tokens.getLine());
+        }
+    }
+
+    /* ===== 每辆车的信箱 ===== */
+    // 入队和摘信箱都在 compute 里做，同一辆车的这两件事互斥：摘掉的信箱里不会再进命令
+    private void post(Car car, Task task){
+        Mailbox mailbox = mailboxes.compute(car, (c, box) -> {
+            if (box == null) box = new Mailbox(c);
+            box.queue.add(task);
+            return box;
+        });
+        mailbox.schedule();
+    }
+
+    private static class Task {
+        final Command command;
+        final Run run;
+
+        Task(Command command, Run run){
+            this.command = command;
+            this.run = run;
+        }
+    }
+
+    private class Mailbox implements Runnable {
+        private final Car car;
+        private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Mailbox(Car car){
+            this.car = car;
+        }
+
+        private void schedule(){
+            if (scheduled.compareAndSet(false, true)) executor.execute(this);
+        }
+
+        @Override
+        public void run(){
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                Task task = queue.poll();
+                if (task == null) break;
+                task.run.run(task.command);
+            }
+            // 取空了：这辆车眼下没有命令，摘掉信箱；摘之前刚进来的命令会让摘不成，照常往下执行
+            if (queue.isEmpty() && mailboxes.computeIfPresent(car, (c, box) -> box == this && queue.isEmpty() ? null : box) == null)
+                return;
+            scheduled.set(false);
+            // 放开之后再看一眼，防止和 post 交错时漏掉刚进来的命令
+            if (!queue.isEmpty()) schedule();
+        }
+    }
+
+    /* ===== 统计 ===== */
+    public static class Report {
+        public final long commands;
+        public final long failed;  // execute 返回 false（比如撞墙）或抛异常的命令数
+        public final int cars;
+        public final long elapsedNanos;
+
+        Report(long commands, long failed, int cars, long elapsedNanos){
+            this.commands = commands;
+            this.failed = failed;
+            this.cars = cars;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double commandsPerSecond(){
+            return elapsedNanos == 0 ? 0 : commands * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString(){
+            return String.format("%d commands for %d cars in %d ms (%.0f commands/s, %d failed)",
+                    commands, cars, elapsedNanos / 1_000_000, commandsPerSecond(), failed);
+        }
+    }
+}
@@ -16,10 +16,7 @@ public abstract class MoveCommand implements Command{
 
     @Override
     public boolean execute(){
-        for(int i = 0; i < count; i++) {
-            if (!car.moveTo(direction)) return false;
-        }
-        return true;
+        return car.moveAlong(direction, count) == count;
     }
 
 }
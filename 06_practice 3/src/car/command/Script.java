@@ -1,29 +1,13 @@
 package car.command;
 
 import car.Car;
-import car.util.ColorFactory;
 
-import java.awt.*;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.lang.reflect.Constructor;
-import java.util.*;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Script {
-    private static Properties classnames = new Properties();
-
-    static{
-        try {
-            InputStream is = Script.class.getClassLoader().getResourceAsStream("commands.txt");
-            classnames.load(is);
-            System.out.println(classnames);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
     List<Command> commands;
 
     public Script(){
@@ -41,24 +25,8 @@ public class Script {
     }
 
     public static Script load(InputStreamReader isr, Car car){
-        try (Scanner scanner = new Scanner(isr) ) {
-            Script script = new Script();
-            while(scanner.hasNextLine()){
-                String line = scanner.nextLine();
-                StringTokenizer st = new StringTokenizer(line);
-                String command = st.nextToken();
-                String parameter = st.nextToken();
-                //System.out.println("command = "+command+" paramener="+parameter);
-                String classname = classnames.getProperty(command);
-                Class classz = Class.forName(classname);
-                Constructor[] constructors = classz.getConstructors();
-                //System.out.println(Arrays.asList(constructors));
-
-                Command com = (Command)constructors[0].newInstance(car, parameter);
-                //System.out.println("com="+com);
-                script.add(com);
-            }
-            return script;
+        try (InputStreamReader in = isr) {
+            return parse(new ScriptTokenizer(in), car);
         }catch(Exception e){
             e.printStackTrace();
             return null;
@@ -66,4 +34,37 @@ public class Script {
 
     }
 
+    // 不预先读完，边解析边执行，内存和脚本长度无关；见 StreamingScript
+    public static StreamingScript stream(InputStreamReader isr, Car car){
+        return new StreamingScript(isr, car, StreamingScript.DEFAULT_CAPACITY);
+    }
+
+    private static Script parse(ScriptTokenizer tokens, Car car) throws IOException {
+        Script script = new Script();
+        Command command;
+        while((command = parseLine(tokens, car)) != null){
+            script.add(command);
+        }
+        return script;
+    }
+
+    // 解析下一条命令，文件结束返回 null
+    static Command parseLine(ScriptTokenizer tokens, Car car) throws IOException {
+        if (!tokens.nextLine()) return null;
+        return parseCommand(tokens, tokens.next(), car);
+    }
+
+    // 关键字已读出，接着读参数；关键字查 CommandRegistry 得到工厂，参数原样交给工厂
+    static Command parseCommand(ScriptTokenizer tokens, String command, Car car) throws IOException {
+        String parameter = tokens.next();
+        CommandFactory factory = command == null ? null : CommandRegistry.lookup(command);
+        if (factory == null)
+            throw new IllegalArgumentException("Unknown command '" + command + "' at line " + tokens.getLine());
+        if (parameter == null)
+            throw new IllegalArgumentException("Missing parameter for " + command + " at line " + tokens.getLine());
+        Command result = factory.create(car, parameter);
+        tokens.skipLine();
+        return result;
+    }
+
 }
@@ -0,0 +1,76 @@
+package car.command;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 按块读字符、按空白切词的脚本分词器，代替 Scanner 逐行读加每行一个 StringTokenizer。
+ * 一行的格式是 "关键字 参数 [忽略的内容]"，空行跳过。
+ **/
+class ScriptTokenizer {
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos, limit;
+    private int newlines;
+    private final StringBuilder spill = new StringBuilder(); // 跨块的词先攒在这里
+
+    ScriptTokenizer(Reader in){
+        this.in = in;
+    }
+
+    // 当前行号，从 1 开始
+    int getLine(){
+        return newlines + 1;
+    }
+
+    // 跳过空行，停在下一行第一个词前；文件结束返回 false
+    boolean nextLine() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) return false;
+            char c = buf[pos];
+            if (!Character.isWhitespace(c)) return true;
+            if (c == '\n') newlines++;
+            pos++;
+        }
+    }
+
+    // 当前行的下一个词；行尾或文件尾返回 null（不越过换行）
+    String next() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) return null;
+            char c = buf[pos];
+            if (c == '\n') return null;
+            if (!Character.isWhitespace(c)) break;
+            pos++;
+        }
+        int start = pos;
+        while (pos < limit && !Character.isWhitespace(buf[pos])) pos++;
+        if (pos < limit) return new String(buf, start, pos - start);
+        // 词被块边界截断，拼上后面的部分
+        spill.setLength(0);
+        spill.append(buf, start, pos - start);
+        while (pos < limit || fill()) {
+            char c = buf[pos];
+            if (Character.isWhitespace(c)) break;
+            spill.append(c);
+            pos++;
+        }
+        return spill.toString();
+    }
+
+    // 丢掉当前行剩下的内容，停在换行符上
+    void skipLine() throws IOException {
+        while (pos < limit || fill()) {
+            if (buf[pos] == '\n') return;
+            pos++;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+package car.command;
+
+import car.Car;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 边解析边执行的脚本：解析线程把命令放进有界队列，execute() 所在线程逐条取出执行。
+ * 队列满了解析线程就阻塞（背压），所以内存只和队列容量有关，
+ * 脚本可以任意长，甚至是生成器通过管道源源不断写进来的。
+ **/
+public class StreamingScript implements Command {
+    static final int DEFAULT_CAPACITY = 1024;
+    private static final Command END = () -> true; // 解析结束的标记
+
+    private final InputStreamReader isr;
+    private final Car car;
+    private final BlockingQueue<Command> queue;
+    private volatile Thread parser;
+    private volatile Exception failure;
+    private volatile boolean cancelled;
+    private volatile long executed;
+
+    public StreamingScript(InputStreamReader isr, Car car, int capacity){
+        this.isr = isr;
+        this.car = car;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public long getExecuted(){
+        return executed;
+    }
+
+    // 停止解析和执行；正在执行的那条命令会做完
+    public void cancel(){
+        cancelled = true;
+        Thread t = parser;
+        if (t != null) t.interrupt();
+        // 执行线程若正卡在空队列的 take 上，塞一个结束标记叫醒它；队列不空时它取下一条就会看到 cancelled
+        queue.offer(END);
+    }
+
+    /**
+     * 阻塞直到脚本读完并全部执行，或被 cancel / 中断。
+     * 返回 false 表示解析出错或没有执行完，出错原因会打印出来（和 Script.load 一样）。
+     **/
+    @Override
+    public boolean execute(){
+        if (parser != null) throw new IllegalStateException("Script already executed");
+        Thread t = new Thread(this::parse, "script-parser");
+        t.setDaemon(true);
+        parser = t;
+        t.start();
+        long count = 0;
+        try {
+            while (!cancelled) {
+                Command command = queue.take();
+                if (command == END) break;
+                command.execute();
+                executed = ++count;
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+        }
+        if (cancelled) {
+            // 让可能卡在 put 上的解析线程退出
+            queue.clear();
+            return false;
+        }
+        if (failure != null) {
+            failure.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    private void parse(){
+        try (InputStreamReader in = isr) {
+            ScriptTokenizer tokens = new ScriptTokenizer(in);
+            Command command;
+            while (!cancelled && (command = Script.parseLine(tokens, car)) != null) {
+                queue.put(command);
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        try {
+            queue.put(END);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package car.event;
+
+import car.Car;
+import car.Position;
+import car.WallDelta;
+
+/**
+ * 环形缓冲区里的一个槽位。对象预先分配、反复复用：回调里拿到的 CarEvent
+ * 只在回调期间有效，需要保留请自己拷贝字段。
+ **/
+public class CarEvent {
+    public enum Type { CREATED, DESTROYED, MOVED, CHANGED, FIELD_CHANGED, WALLS_CHANGED }
+
+    Type type;
+    Car car;
+    int fromRow, fromCol, toRow, toCol;
+    boolean success;
+    WallDelta delta; // 只有 WALLS_CHANGED 有
+
+    public Type getType() { return type; }
+    public Car getCar() { return car; }
+    public int getFromRow() { return fromRow; }
+    public int getFromCol() { return fromCol; }
+    public int getToRow() { return toRow; }
+    public int getToCol() { return toCol; }
+    public boolean isSuccess() { return success; }
+    public WallDelta getDelta() { return delta; }
+
+    // 需要 Position 的老接口才用，会分配新对象
+    public Position from() { return new Position(fromRow, fromCol); }
+    public Position to() { return new Position(toRow, toCol); }
+
+    void set(Type type, Car car, int fromRow, int fromCol, int toRow, int toCol, boolean success) {
+        set(type, car, fromRow, fromCol, toRow, toCol, success, null);
+    }
+
+    void set(Type type, Car car, int fromRow, int fromCol, int toRow, int toCol, boolean success, WallDelta delta) {
+        this.type = type;
+        this.car = car;
+        this.fromRow = fromRow;
+        this.fromCol = fromCol;
+        this.toRow = toRow;
+        this.toCol = toCol;
+        this.success = success;
+        this.delta = delta;
+    }
+
+    void copyFrom(CarEvent other) {
+        set(other.type, other.car, other.fromRow, other.fromCol, other.toRow, other.toCol, other.success, other.delta);
+    }
+
+    @Override
+    public String toString() {
+        return "[CarEvent: " + type + " car=" + (car == null ? "-" : car.getIndex())
+                + " from=" + fromRow + "," + fromCol + " to=" + toRow + "," + toCol + " success=" + success + "]";
+    }
+}
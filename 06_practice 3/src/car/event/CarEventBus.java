@@ -0,0 +1,303 @@
+package car.event;
+
+import car.Car;
+import car.CarEventsListener;
+import car.Position;
+import car.WallDelta;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 多监听者的异步事件总线，底层是预分配的环形缓冲区。
+ * 生产者（移动车的线程）用 getAndIncrement 领序号、写槽位、发布，不加锁；
+ * 每个订阅者有自己的线程和消费序号，互不影响。
+ * 本身实现 CarEventsListener，直接交给 BasicCarServer 即可。
+ **/
+public class CarEventBus implements CarEventsListener {
+    private static final int MAX_BATCH = 256;
+
+    private final int capacity;
+    private final int mask;
+    private final CarEvent[] slots;
+    // published[i]：槽位 i 里已发布的序号；写入中是 -(seq)-1
+    private final AtomicLongArray published;
+    private final AtomicLong claim;
+    // 订阅者数组整体替换（写时复制），发布时直接遍历数组，不分配迭代器
+    private final AtomicReference<Subscription[]> subscriptions = new AtomicReference<>(new Subscription[0]);
+    // 生产者看到的“所有 BLOCK 订阅者都已消费到的序号”的缓存，避免每次都扫一遍
+    private volatile long gatingCache;
+
+    public CarEventBus(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = new CarEvent[capacity];
+        this.published = new AtomicLongArray(capacity);
+        // 序号从 capacity 开始，槽位初始值当作“上一圈已发布”，保证已发布的序号都 >= 0
+        this.claim = new AtomicLong(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new CarEvent();
+            published.set(i, i);
+        }
+    }
+
+    /* ===== 订阅 ===== */
+    public Subscription subscribe(CarEventsListener listener, SlowConsumerPolicy policy) {
+        Subscription subscription = new Subscription(listener, policy, claim.get());
+        Subscription[] current, updated;
+        do {
+            current = subscriptions.get();
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+        } while (!subscriptions.compareAndSet(current, updated));
+        subscription.thread.start();
+        return subscription;
+    }
+
+    public void close() {
+        for (Subscription subscription : subscriptions.get()) subscription.cancel();
+    }
+
+    /* ===== 生产者：CarEventsListener ===== */
+    @Override
+    public void carCreated(Car car) {
+        publishAt(CarEvent.Type.CREATED, car);
+    }
+
+    @Override
+    public void carDestroyed(Car car) {
+        publishAt(CarEvent.Type.DESTROYED, car);
+    }
+
+    @Override
+    public void carMoved(Car car, Position from, Position to, boolean success) {
+        publish(CarEvent.Type.MOVED, car, from.row, from.col, to.row, to.col, success);
+    }
+
+    // 服务器走这个：坐标直接拆进预分配的槽位，发布一次移动不分配对象
+    @Override
+    public void carMoved(Car car, long from, long to, boolean success) {
+        publish(CarEvent.Type.MOVED, car, Position.rowOf(from), Position.colOf(from),
+                Position.rowOf(to), Position.colOf(to), success);
+    }
+
+    @Override
+    public void carChanged(Car car) {
+        publishAt(CarEvent.Type.CHANGED, car);
+    }
+
+    // 起点终点都是车当前所在的格子
+    private void publishAt(CarEvent.Type type, Car car) {
+        long p = car.getPackedPosition();
+        int row = Position.rowOf(p), col = Position.colOf(p);
+        publish(type, car, row, col, row, col, true);
+    }
+
+    @Override
+    public void fieldChanged() {
+        publish(CarEvent.Type.FIELD_CHANGED, null, 0, 0, 0, 0, true);
+    }
+
+    @Override
+    public void wallsChanged(WallDelta delta) {
+        publish(CarEvent.Type.WALLS_CHANGED, null, 0, 0, 0, 0, true, delta);
+    }
+
+    public void publish(CarEvent.Type type, Car car, int fromRow, int fromCol, int toRow, int toCol, boolean success) {
+        publish(type, car, fromRow, fromCol, toRow, toCol, success, null);
+    }
+
+    private void publish(CarEvent.Type type, Car car, int fromRow, int fromCol, int toRow, int toCol, boolean success,
+                         WallDelta delta) {
+        long seq = claim.getAndIncrement();
+        int index = (int) (seq & mask);
+        long wrap = seq - capacity;
+        // 1) 上一圈同一槽位的生产者必须先发布完
+        for (int spins = 0; published.get(index) != wrap; spins++) backoff(spins);
+        // 2) BLOCK 订阅者必须已经消费过上一圈的事件
+        if (wrap >= gatingCache) {
+            for (int spins = 0; wrap >= (gatingCache = minBlockingSequence(seq)); spins++) backoff(spins);
+        }
+        published.set(index, -seq - 1);
+        // volatile 写只管住它前面的读写；不加这道屏障，槽位的新内容可能先于“写入中”标记被读者看到
+        VarHandle.storeStoreFence();
+        slots[index].set(type, car, fromRow, fromCol, toRow, toCol, success, delta);
+        published.set(index, seq);
+        for (Subscription subscription : subscriptions.get()) subscription.wakeUp();
+    }
+
+    private long minBlockingSequence(long fallback) {
+        long min = fallback;
+        for (Subscription subscription : subscriptions.get())
+            if (subscription.policy == SlowConsumerPolicy.BLOCK && subscription.active)
+                min = Math.min(min, subscription.next);
+        return min;
+    }
+
+    private static void backoff(int spins) {
+        if (spins < 100) Thread.onSpinWait();
+        else if (spins < 200) Thread.yield();
+        else LockSupport.parkNanos(50_000);
+    }
+
+    /* ===== 消费者 ===== */
+    public class Subscription {
+        private final CarEventsListener listener;
+        private final MovedBatchListener batchListener;
+        private final SlowConsumerPolicy policy;
+        private final Thread thread;
+        private final LongAdder dropped = new LongAdder();
+        private volatile long next; // 下一个要消费的序号
+        private volatile boolean active = true;
+        private volatile boolean parked;
+
+        // 消费者自己的拷贝缓冲，读槽位时先拷出来再校验有没有被覆盖
+        private final CarEvent[] batch = new CarEvent[MAX_BATCH];
+        private final List<CarEvent> moves = new ArrayList<>(MAX_BATCH);
+        private final Map<Car, CarEvent> coalesced = new IdentityHashMap<>();
+
+        Subscription(CarEventsListener listener, SlowConsumerPolicy policy, long start) {
+            this.listener = listener;
+            this.batchListener = listener instanceof MovedBatchListener ? (MovedBatchListener) listener : null;
+            this.policy = policy;
+            this.next = start;
+            for (int i = 0; i < MAX_BATCH; i++) batch[i] = new CarEvent();
+            this.thread = new Thread(this::run, "car-events-" + listener.getClass().getSimpleName());
+            thread.setDaemon(true);
+        }
+
+        public long getDropped() { return dropped.sum(); }
+        public long getLag() { return claim.get() - next; }
+
+        public void cancel() {
+            active = false;
+            Subscription[] current, updated;
+            do {
+                current = subscriptions.get();
+                updated = Arrays.stream(current).filter(s -> s != this).toArray(Subscription[]::new);
+            } while (!subscriptions.compareAndSet(current, updated));
+            LockSupport.unpark(thread);
+        }
+
+        void wakeUp() {
+            if (parked) LockSupport.unpark(thread);
+        }
+
+        private void run() {
+            int idle = 0;
+            while (active) {
+                int n = drain();
+                if (n == 0) {
+                    if (++idle > 200) {
+                        parked = true;
+                        if (published.get((int) (next & mask)) != next) LockSupport.parkNanos(1_000_000);
+                        parked = false;
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                    continue;
+                }
+                idle = 0;
+                try {
+                    deliver(n);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // 把已发布的事件拷到 batch 里，返回条数；被覆盖时按策略跳过
+        private int drain() {
+            long seq = next;
+            int n = 0;
+            boolean overrun = false;
+            while (n < MAX_BATCH) {
+                int index = (int) (seq & mask);
+                long p1 = published.get(index);
+                if (p1 == seq) {
+                    batch[n].copyFrom(slots[index]);
+                    VarHandle.acquireFence(); // 拷贝完再核对序号，期间被覆盖就作废
+                    if (published.get(index) == seq) {
+                        n++;
+                        seq++;
+                        continue;
+                    }
+                    overrun = true;
+                } else {
+                    long writing = p1 < 0 ? -p1 - 1 : p1;
+                    overrun = writing > seq;
+                }
+                if (!overrun) break;
+                // 只有不阻塞生产者的订阅者会被覆盖：跳到最老的还有效的序号
+                long oldest = Math.max(seq + 1, claim.get() - capacity + 1);
+                dropped.add(oldest - seq);
+                seq = oldest;
+                if (policy == SlowConsumerPolicy.COALESCE) {
+                    batch[n].set(CarEvent.Type.FIELD_CHANGED, null, 0, 0, 0, 0, true);
+                    n++;
+                }
+                overrun = false;
+            }
+            next = seq;
+            return n;
+        }
+
+        private void deliver(int n) {
+            for (int i = 0; i < n; i++) {
+                CarEvent event = batch[i];
+                if (event.type == CarEvent.Type.MOVED) {
+                    if (policy == SlowConsumerPolicy.COALESCE) {
+                        if (!event.success) continue;
+                        CarEvent first = coalesced.get(event.car);
+                        if (first != null) {
+                            first.toRow = event.toRow;
+                            first.toCol = event.toCol;
+                            continue;
+                        }
+                        coalesced.put(event.car, event);
+                    }
+                    moves.add(event);
+                    continue;
+                }
+                flushMoves();
+                dispatch(event);
+            }
+            flushMoves();
+        }
+
+        private void flushMoves() {
+            if (moves.isEmpty()) return;
+            if (batchListener != null) {
+                batchListener.onMovedBatch(moves);
+            } else {
+                for (CarEvent move : moves)
+                    listener.carMoved(move.car, Position.pack(move.fromRow, move.fromCol),
+                            Position.pack(move.toRow, move.toCol), move.success);
+            }
+            moves.clear();
+            coalesced.clear();
+        }
+
+        private void dispatch(CarEvent event) {
+            switch (event.type) {
+                case CREATED: listener.carCreated(event.car); break;
+                case DESTROYED: listener.carDestroyed(event.car); break;
+                case CHANGED: listener.carChanged(event.car); break;
+                case FIELD_CHANGED: listener.fieldChanged(); break;
+                case WALLS_CHANGED: listener.wallsChanged(event.delta); break;
+                default: break;
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package car.event;
+
+import car.CarEventsListener;
+
+import java.util.List;
+
+/**
+ * 想按批接收移动事件的监听者实现这个接口：一批里连续的 MOVED 事件
+ * 不再逐个调用 carMoved，而是一次 onMovedBatch。列表和其中的事件对象都会被复用。
+ **/
+public interface MovedBatchListener extends CarEventsListener {
+    void onMovedBatch(List<CarEvent> moves);
+}
@@ -0,0 +1,12 @@
+package car.event;
+
+// 消费者跟不上生产者时怎么办
+public enum SlowConsumerPolicy {
+    // 生产者等这个消费者腾出槽位（不丢事件，但慢消费者会拖慢移动）
+    BLOCK,
+    // 生产者不等；被覆盖的事件直接丢掉并计数
+    DROP,
+    // 生产者不等；一批里同一辆车的多次成功移动合并成一次，失败的移动丢掉；
+    // 被覆盖时额外回调一次 fieldChanged() 让监听者整体刷新
+    COALESCE
+}
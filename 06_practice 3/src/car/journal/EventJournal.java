@@ -0,0 +1,306 @@
+package car.journal;
+
+import car.Car;
+import car.CarEventsListener;
+import car.FieldMatrix;
+import car.FieldSnapshot;
+import car.Position;
+import car.WallDelta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static car.journal.JournalFormat.*;
+
+/**
+ * 把车的事件写进只追加的二进制日志（格式见 JournalFormat），之后可以用 JournalReplay 重放。
+ * 回调线程只在内存缓冲里编码一条记录（几十字节，短暂持有一把锁），不碰磁盘；
+ * 后台写线程把攒下的记录整块写出，需要时再 force 一次（组提交）。
+ * 写线程跟不上时缓冲翻倍增长，到上限才让回调线程等待。
+ * wallsChanged 直接按增量记；fieldChanged 不带细节，这里和上一次的墙快照对比，记下具体哪些格子变了。
+ **/
+public class EventJournal implements CarEventsListener, AutoCloseable {
+    private static final int INITIAL_BUFFER = 1 << 20;
+    private static final int MAX_BUFFER = 64 << 20;
+    private static final int MAX_FIXED_RECORD = 64; // 不含名字的记录最长字节数
+
+    private final FieldMatrix field;
+    private final FileChannel channel;
+    private final boolean fsync;
+    private final long startNanos;
+    private final Thread writer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataReady = lock.newCondition(); // 写线程等新记录
+    private final Condition drained = lock.newCondition();   // flush 和缓冲满的回调线程等写完一批
+    // 以下字段受 lock 保护；spare 在写线程写盘期间为 null
+    private ByteBuffer active = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER);
+    private boolean signalled;
+    private long lastMicros;
+    private long appended, committed; // 记录条数
+    private long commits, bytesWritten, stalls;
+    private boolean closing;
+    private IOException failure;
+
+    // 只由 fieldChanged 使用，受 wallsLock 保护。拍快照时不拿 lock，别的记录照常追加；
+    // 要两把锁时先 wallsLock 后 lock
+    private final ReentrantLock wallsLock = new ReentrantLock();
+    private FieldSnapshot walls, wallsSpare;
+
+    public EventJournal(FieldMatrix field, Path file) throws IOException {
+        this(field, file, false);
+    }
+
+    // fsync 为 true 时每次组提交都 force 到磁盘
+    public EventJournal(FieldMatrix field, Path file, boolean fsync) throws IOException {
+        this.field = field;
+        this.fsync = fsync;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.walls = field.snapshot();
+        this.startNanos = System.nanoTime();
+        writeHeader(System.currentTimeMillis());
+        this.writer = new Thread(this::writeLoop, "car-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void writeHeader(long startMillis) throws IOException {
+        int cells = field.rows * field.cols;
+        ByteBuffer header = ByteBuffer.allocate(24 + ((cells + 63) >>> 6) * 8);
+        header.putInt(MAGIC).putInt(VERSION).putInt(field.rows).putInt(field.cols).putLong(startMillis);
+        long bits = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            if (walls.isWall(cell / field.cols, cell % field.cols)) bits |= 1L << (cell & 63);
+            if ((cell & 63) == 63 || cell == cells - 1) {
+                header.putLong(bits);
+                bits = 0;
+            }
+        }
+        header.flip();
+        while (header.hasRemaining()) channel.write(header);
+    }
+
+    /* ===== CarEventsListener ===== */
+    @Override
+    public void carCreated(Car car) {
+        long p = car.getPackedPosition();
+        String name = car.getName();
+        byte[] utf8 = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = begin(CREATED, MAX_FIXED_RECORD + (utf8 == null ? 0 : utf8.length));
+        putVarLong(out, car.getIndex());
+        putVarLong(out, Position.rowOf(p));
+        putVarLong(out, Position.colOf(p));
+        putVarLong(out, car.getSpeed());
+        putVarLong(out, car.getRGB() & 0xFFFFFFFFL);
+        putVarLong(out, utf8 == null ? 0 : utf8.length + 1);
+        if (utf8 != null) out.put(utf8);
+        end();
+    }
+
+    @Override
+    public void carDestroyed(Car car) {
+        long p = car.getPackedPosition();
+        ByteBuffer out = begin(DESTROYED, MAX_FIXED_RECORD);
+        putVarLong(out, car.getIndex());
+        putVarLong(out, Position.rowOf(p));
+        putVarLong(out, Position.colOf(p));
+        end();
+    }
+
+    @Override
+    public void carMoved(Car car, Position from, Position to, boolean success) {
+        carMoved(car, from.packed(), to.packed(), success);
+    }
+
+    @Override
+    public void carMoved(Car car, long from, long to, boolean success) {
+        int fromRow = Position.rowOf(from), fromCol = Position.colOf(from);
+        ByteBuffer out = begin(success ? MOVED : MOVE_FAILED, MAX_FIXED_RECORD);
+        putVarLong(out, car.getIndex());
+        putVarLong(out, fromRow);
+        putVarLong(out, fromCol);
+        putVarLong(out, zigzag(Position.rowOf(to) - fromRow));
+        putVarLong(out, zigzag(Position.colOf(to) - fromCol));
+        end();
+    }
+
+    @Override
+    public void carChanged(Car car) {
+        String name = car.getName();
+        byte[] utf8 = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+        long rgb = car.getRGB() & 0xFFFFFFFFL;
+        ByteBuffer out = begin(CHANGED, MAX_FIXED_RECORD + (utf8 == null ? 0 : utf8.length));
+        putVarLong(out, car.getIndex());
+        putVarLong(out, rgb);
+        putVarLong(out, utf8 == null ? 0 : utf8.length + 1);
+        if (utf8 != null) out.put(utf8);
+        end();
+    }
+
+    @Override
+    public void fieldChanged() {
+        wallsLock.lock();
+        try {
+            FieldSnapshot next = field.snapshot(wallsSpare);
+            // 一组墙变化连续写进日志，中间不插别的记录
+            lock.lock();
+            try {
+                next.diffWalls(walls, cell -> wall(WALL_ADDED, cell), cell -> wall(WALL_REMOVED, cell));
+                begin(FIELD_CHANGED, MAX_FIXED_RECORD);
+                end();
+            } finally {
+                lock.unlock();
+            }
+            wallsSpare = walls;
+            walls = next;
+        } finally {
+            wallsLock.unlock();
+        }
+    }
+
+    // 增量不动 fieldChanged 的对比基准：之后的整体对比可能把这些格子再记一遍，
+    // 墙记录是“设成墙/设成空”，重复应用不影响重放结果
+    @Override
+    public void wallsChanged(WallDelta delta) {
+        lock.lock();
+        try {
+            for (int cell : delta.getAdded()) wall(WALL_ADDED, cell);
+            for (int cell : delta.getRemoved()) wall(WALL_REMOVED, cell);
+            begin(FIELD_CHANGED, MAX_FIXED_RECORD);
+            end();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void wall(byte type, int cell) {
+        ByteBuffer out = begin(type, MAX_FIXED_RECORD);
+        putVarLong(out, cell);
+        end();
+    }
+
+    /* ===== 追加：begin 加锁并写类型和时间，字段写完调 end 放锁 ===== */
+    private ByteBuffer begin(byte type, int maxBytes) {
+        lock.lock();
+        ensureRoom(maxBytes);
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        active.put(type);
+        putVarLong(active, Math.max(0, micros - lastMicros));
+        lastMicros = Math.max(lastMicros, micros);
+        return active;
+    }
+
+    private void end() {
+        appended++;
+        if (!signalled) {
+            signalled = true;
+            dataReady.signal();
+        }
+        lock.unlock();
+    }
+
+    // 缓冲放不下就翻倍；到上限了只能等写线程换走一批
+    private void ensureRoom(int bytes) {
+        while (active.remaining() < bytes) {
+            if (active.capacity() < MAX_BUFFER) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(active.capacity() * 2, active.position() + bytes));
+                active.flip();
+                bigger.put(active);
+                active = bigger;
+            } else {
+                stalls++;
+                dataReady.signal();
+                drained.awaitUninterruptibly();
+            }
+        }
+    }
+
+    /* ===== 写线程：一次写出攒下的全部记录 ===== */
+    private void writeLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long batchEnd;
+            lock.lock();
+            try {
+                while (active.position() == 0 && !closing) dataReady.awaitUninterruptibly();
+                if (active.position() == 0) return; // 关闭且已写完
+                batch = active;
+                active = spare;
+                spare = null;
+                batchEnd = appended;
+                signalled = false;
+            } finally {
+                lock.unlock();
+            }
+            IOException error = null;
+            batch.flip();
+            int bytes = batch.remaining();
+            try {
+                while (batch.hasRemaining()) channel.write(batch);
+                if (fsync) channel.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            lock.lock();
+            try {
+                if (error != null) {
+                    if (failure == null) error.printStackTrace();
+                    failure = error;
+                }
+                bytesWritten += bytes;
+                commits++;
+                committed = batchEnd;
+                batch.clear();
+                spare = batch;
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /* ===== 控制 ===== */
+    // 等到目前为止追加的记录都写出（fsync 模式下已落盘）
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            long target = appended;
+            dataReady.signal();
+            while (committed < target && writer.isAlive()) drained.awaitUninterruptibly();
+            if (failure != null) throw failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closing = true;
+            dataReady.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) throw failure;
+    }
+
+    public long getRecords() { lock.lock(); try { return appended; } finally { lock.unlock(); } }
+    public long getCommits() { lock.lock(); try { return commits; } finally { lock.unlock(); } }
+    public long getBytesWritten() { lock.lock(); try { return bytesWritten; } finally { lock.unlock(); } }
+    public long getStalls() { lock.lock(); try { return stalls; } finally { lock.unlock(); } }
+}
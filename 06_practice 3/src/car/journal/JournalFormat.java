@@ -0,0 +1,60 @@
+package car.journal;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 事件日志的格式。文件头（大端）：魔数 "CARJ"、版本、rows、cols、开始时间（epoch 毫秒），
+ * 接着是开始时刻的墙位平面（每格 1 bit，64 格一个 long，和 BinaryField 相同）。
+ * 之后是一条条记录：1 字节类型 + 变长整数字段，时间是相对上一条记录的微秒增量。
+ **/
+final class JournalFormat {
+    static final int MAGIC = 0x4341524A; // "CARJ"
+    static final int VERSION = 2; // 2：CREATED 带上速度、颜色和名字
+
+    // 记录类型
+    static final byte CREATED = 1;      // dt car row col speed rgb nameLength nameUtf8（名字同 CHANGED）
+    static final byte MOVED = 2;        // dt car fromRow fromCol dRow dCol（dRow/dCol 是 zigzag）
+    static final byte MOVE_FAILED = 3;  // 同 MOVED
+    static final byte DESTROYED = 4;    // dt car row col
+    static final byte CHANGED = 5;      // dt car rgb nameLength nameUtf8（nameLength = 长度+1，0 表示没有名字）
+    static final byte WALL_ADDED = 6;   // dt cell
+    static final byte WALL_REMOVED = 7; // dt cell
+    static final byte FIELD_CHANGED = 8; // dt，一组墙变化的结束
+
+    private JournalFormat(){
+    }
+
+    static void putVarLong(ByteBuffer out, long v){
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    static long zigzag(long v){
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v){
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+}
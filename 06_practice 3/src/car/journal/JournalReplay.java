@@ -0,0 +1,271 @@
+package car.journal;
+
+import car.Car;
+import car.CarEventsListener;
+import car.CarPainter;
+import car.CarServer;
+import car.CarStore;
+import car.FieldMatrix;
+import car.Position;
+import car.WallDelta;
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static car.journal.JournalFormat.*;
+
+/**
+ * 重放 EventJournal 写的日志：按记录时间往前推进，维护墙和每辆车的状态，
+ * 同时可以把事件转给一个 CarEventsListener（比如 CarPainter）。
+ * 只能往前走；要回到更早的时间点就重新打开文件快进过去。
+ * 日志结尾不完整的记录（进程被杀时正在写）当作文件结束。
+ * 重放出来的车和原来的车号、速度、颜色、名字都一样。
+ * 时间轴是日志开始后的微秒（墙钟），不是模拟的 tick：日志只是监听者，看不到调度器；
+ * 实时模式下 tick t 大约在 t × tickMillis 毫秒处，快进模式没有对应关系。
+ * 命令行：java car.journal.JournalReplay run.journal [realtime]，在窗口里重放。
+ **/
+public class JournalReplay implements AutoCloseable {
+    private final DataInputStream in;
+    public final int rows;
+    public final int cols;
+    private final long startMillis;
+    private final BitSet walls;
+    // 日志里的车号 -> 重放出来的车；车只是状态的载体，它的 server 不做任何事
+    private final Map<Integer, Car> cars = new HashMap<>();
+    private final ReplayServer server = new ReplayServer();
+    private final CarStore store = new CarStore(server);
+    private CarEventsListener listener;
+    private FieldMatrix wallsField;
+    // 上一条 FIELD_CHANGED 之后的墙记录，到 FIELD_CHANGED 时一次改到 wallsField 上，并作为一个增量交给监听者
+    private int[] addedCells = new int[16], removedCells = new int[16];
+    private int addedCount, removedCount;
+
+    private long time;          // 最后一条已应用记录的时间（微秒，相对日志开始）
+    private long records;
+    private byte pendingType;   // 已读出类型和时间、还没应用的记录
+    private long pendingTime;
+    private boolean ended;
+
+    public JournalReplay(Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        if (in.readInt() != MAGIC) throw new IOException("Not a car journal: " + file);
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported journal version " + version + ": " + file);
+        rows = in.readInt();
+        cols = in.readInt();
+        startMillis = in.readLong();
+        int cells = rows * cols;
+        walls = new BitSet(cells);
+        for (int base = 0; base < cells; base += 64) {
+            long bits = in.readLong();
+            for (; bits != 0; bits &= bits - 1) walls.set(base + Long.numberOfTrailingZeros(bits));
+        }
+        readNextHeader();
+    }
+
+    public void setListener(CarEventsListener listener){
+        this.listener = listener;
+    }
+
+    public long getStartMillis(){ return startMillis; }
+    public long getTime(){ return time; }
+    public long getRecords(){ return records; }
+    public boolean isEnded(){ return ended; }
+    public Map<Integer, Car> getCars(){ return Collections.unmodifiableMap(cars); }
+    public boolean isWall(int r, int c){ return walls.get(r * cols + c); }
+
+    // 初始墙都就位的空地图，每批墙变化在 FIELD_CHANGED 时同步到它上面，给 CarPainter 画墙用
+    public FieldMatrix wallsField(){
+        if (wallsField == null) {
+            wallsField = new FieldMatrix(rows, cols);
+            for (int cell = walls.nextSetBit(0); cell >= 0; cell = walls.nextSetBit(cell + 1))
+                wallsField.addWall(cell / cols, cell % cols);
+        }
+        return wallsField;
+    }
+
+    // 当前时刻的完整地图：墙 + 每辆车占的格子。
+    // 不同车的事件在日志里的先后可能和实际落格的先后略有出入，偶尔两车记在同一格时放到最近的空格
+    public FieldMatrix buildField(){
+        FieldMatrix field = new FieldMatrix(rows, cols);
+        for (int cell = walls.nextSetBit(0); cell >= 0; cell = walls.nextSetBit(cell + 1))
+            field.addWall(cell / cols, cell % cols);
+        for (Car car : cars.values()) {
+            Position p = car.getPosition();
+            field.occupyFreeCellNear(p.row, p.col);
+        }
+        return field;
+    }
+
+    /* ===== 推进 ===== */
+    // 应用时间不晚于 micros 的全部记录，返回应用的条数
+    public long advanceTo(long micros) throws IOException {
+        long applied = 0;
+        while (!ended && pendingTime <= micros) {
+            apply();
+            applied++;
+        }
+        return applied;
+    }
+
+    // 放到结尾：realTime 为 true 时按记录之间的原始间隔等待，否则全速
+    public void play(boolean realTime) throws IOException, InterruptedException {
+        long wallStart = System.nanoTime(), logStart = time;
+        while (!ended) {
+            if (realTime) {
+                long dueNanos = wallStart + (pendingTime - logStart) * 1000;
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            }
+            apply();
+        }
+    }
+
+    /* ===== 读记录 ===== */
+    private void readNextHeader() throws IOException {
+        try {
+            int type = in.read();
+            if (type < 0) {
+                ended = true;
+                return;
+            }
+            pendingType = (byte) type;
+            pendingTime = time + readVarLong(in);
+        } catch (EOFException e) {
+            ended = true;
+        }
+    }
+
+    private void apply() throws IOException {
+        try {
+            applyPending();
+        } catch (EOFException e) {
+            ended = true; // 最后一条没写完
+            return;
+        }
+        time = pendingTime;
+        records++;
+        readNextHeader();
+    }
+
+    private void applyPending() throws IOException {
+        switch (pendingType) {
+            case CREATED: {
+                int id = readVarInt(in);
+                int row = readVarInt(in), col = readVarInt(in);
+                int speed = readVarInt(in), rgb = (int) readVarLong(in);
+                Car car = store.restore(id, row, col, speed, rgb, readName());
+                cars.put(id, car);
+                if (listener != null) listener.carCreated(car);
+                break;
+            }
+            case MOVED:
+            case MOVE_FAILED: {
+                int id = readVarInt(in);
+                int row = readVarInt(in), col = readVarInt(in);
+                int dr = (int) unzigzag(readVarLong(in)), dc = (int) unzigzag(readVarLong(in));
+                long from = Position.pack(row, col), to = Position.pack(row + dr, col + dc);
+                Car car = cars.get(id);
+                if (car == null) break;
+                boolean success = pendingType == MOVED;
+                if (success) store.place(car, row + dr, col + dc);
+                if (listener != null) listener.carMoved(car, from, to, success);
+                break;
+            }
+            case DESTROYED: {
+                int id = readVarInt(in);
+                readVarInt(in);
+                readVarInt(in);
+                Car car = cars.remove(id);
+                if (car == null) break;
+                store.destroy(car);
+                if (listener != null) listener.carDestroyed(car);
+                break;
+            }
+            case CHANGED: {
+                int id = readVarInt(in);
+                int rgb = (int) readVarLong(in);
+                String name = readName();
+                Car car = cars.get(id);
+                if (car == null) break;
+                car.setColor(new Color(rgb, true));
+                car.setName(name);
+                if (listener != null) listener.carChanged(car);
+                break;
+            }
+            case WALL_ADDED:
+            case WALL_REMOVED: {
+                int cell = readVarInt(in);
+                boolean added = pendingType == WALL_ADDED;
+                walls.set(cell, added);
+                if (added) {
+                    if (addedCount == addedCells.length) addedCells = Arrays.copyOf(addedCells, addedCount * 2);
+                    addedCells[addedCount++] = cell;
+                } else {
+                    if (removedCount == removedCells.length) removedCells = Arrays.copyOf(removedCells, removedCount * 2);
+                    removedCells[removedCount++] = cell;
+                }
+                break;
+            }
+            case FIELD_CHANGED: {
+                int[] added = Arrays.copyOf(addedCells, addedCount), removed = Arrays.copyOf(removedCells, removedCount);
+                // 一批墙一次改到 wallsField 上，增量带上改完后的版本，和服务器发出的增量一样
+                long version = wallsField == null ? 0 : wallsField.changeWalls(added, removed).version;
+                if (listener != null && added.length + removed.length > 0)
+                    listener.wallsChanged(new WallDelta(cols, added, removed, version));
+                else if (listener != null)
+                    listener.fieldChanged();
+                addedCount = removedCount = 0;
+                break;
+            }
+            default:
+                throw new IOException("Corrupt journal: record type " + pendingType + " after " + records + " records");
+        }
+    }
+
+    // nameLength nameUtf8，长度是字节数+1，0 表示没有名字
+    private String readName() throws IOException {
+        int nameLength = readVarInt(in);
+        if (nameLength == 0) return null;
+        byte[] utf8 = new byte[nameLength - 1];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static class ReplayServer implements CarServer {
+        @Override public Car createCar() { throw new UnsupportedOperationException(); }
+        @Override public void destroyCar(Car car) { }
+        // 回放的车只按记录摆位置（CarStore.place），不自己走
+        @Override public boolean moveCarTo(Car car, Direction direction) { throw new UnsupportedOperationException(); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: JournalReplay <run.journal> [realtime]");
+            return;
+        }
+        try (JournalReplay replay = new JournalReplay(Paths.get(args[0]))) {
+            CarPainter painter = new CarPainter(replay.wallsField());
+            replay.setListener(painter);
+            replay.play(args.length > 1 && "realtime".equals(args[1]));
+            System.out.println("replayed " + replay.getRecords() + " records, " + replay.getTime() / 1000 + " ms");
+        }
+    }
+}
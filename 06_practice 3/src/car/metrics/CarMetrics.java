@@ -0,0 +1,153 @@
+package car.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务器热点路径上的计数和延迟，全局一份。
+ * 关着的时候（默认）每个记录点只多读一次 volatile，不调 nanoTime、不碰计数；
+ * 可以随时打开/关上（setEnabled、JMX 的 Enabled 属性），数据只在打开期间累积。
+ * 计数用 LongAdder，延迟用 LatencyHistogram，多线程记录互不争抢。
+ **/
+public final class CarMetrics {
+    private static volatile boolean enabled;
+
+    // 移动次数就是 moveLatency 的记录数，不另外计
+    private static final LongAdder moveSuccesses = new LongAdder();
+    private static final LongAdder extraCells = new LongAdder();   // 多格移动比一格多走的格数
+    private static final LongAdder collisions = new LongAdder();   // 被别的车挡住
+    private static final LongAdder wallHits = new LongAdder();     // 撞墙或出界
+    private static final LongAdder casRetries = new LongAdder();   // FieldMatrix 的 CAS 因同 word 被并发修改而重试
+    private static final LongAdder wallsAdded = new LongAdder();
+    private static final LongAdder wallsRemoved = new LongAdder();
+    private static final LongAdder snapshotFreezes = new LongAdder(); // 乐观快照失败、挡住写者才拷完
+
+    private static final LatencyHistogram moveLatency = new LatencyHistogram("move");
+    private static final LatencyHistogram dispatchLatency = new LatencyHistogram("listener");
+    private static final LatencyHistogram repaintLatency = new LatencyHistogram("repaint");
+    private static final LatencyHistogram snapshotLatency = new LatencyHistogram("snapshot");
+
+    private static ScheduledExecutorService dumper;
+
+    private CarMetrics(){
+    }
+
+    public static boolean enabled(){
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on){
+        enabled = on;
+    }
+
+    /* ===== 记录点：调用方先看 enabled()，打开时才计时 ===== */
+    // 一次移动请求：cells 是走成的格数（单步移动成功为 1，失败为 0）
+    public static void move(int cells, long nanos){
+        if (cells > 0) moveSuccesses.increment();
+        if (cells > 1) extraCells.add(cells - 1);
+        moveLatency.record(nanos);
+    }
+
+    public static void collision(){ collisions.increment(); }
+    public static void wallHit(){ wallHits.increment(); }
+    public static void listenerDispatch(long nanos){ dispatchLatency.record(nanos); }
+    public static void repaint(long nanos){ repaintLatency.record(nanos); }
+
+    public static void snapshot(long nanos, boolean froze){
+        if (froze) snapshotFreezes.increment();
+        snapshotLatency.record(nanos);
+    }
+
+    // 下面几个放在 FieldMatrix 的写路径上，自己判断开关，调用方不用管
+    public static void casRetry(){
+        if (enabled) casRetries.increment();
+    }
+
+    public static void wallsChanged(int added, int removed){
+        if (!enabled) return;
+        if (added > 0) wallsAdded.add(added);
+        if (removed > 0) wallsRemoved.add(removed);
+    }
+
+    public static void reset(){
+        for (LongAdder counter : new LongAdder[]{moveSuccesses, extraCells, collisions, wallHits,
+                casRetries, wallsAdded, wallsRemoved, snapshotFreezes})
+            counter.reset();
+        for (LatencyHistogram histogram : new LatencyHistogram[]{moveLatency, dispatchLatency, repaintLatency, snapshotLatency})
+            histogram.reset();
+    }
+
+    /* ===== 输出 ===== */
+    public static String dump(){
+        StringBuilder sb = new StringBuilder();
+        sb.append("== car metrics ").append(LocalTime.now().truncatedTo(ChronoUnit.SECONDS))
+                .append(enabled ? "" : " (disabled)").append(" ==\n");
+        long attempts = moveLatency.getCount(), successes = moveSuccesses.sum();
+        sb.append(String.format("moves    attempts=%d ok=%d (%.1f%%) cells=%d collisions=%d wallHits=%d%n",
+                attempts, successes, attempts == 0 ? 0.0 : 100.0 * successes / attempts, successes + extraCells.sum(),
+                collisions.sum(), wallHits.sum()));
+        sb.append(String.format("field    casRetries=%d wallsAdded=%d wallsRemoved=%d snapshotFreezes=%d%n",
+                casRetries.sum(), wallsAdded.sum(), wallsRemoved.sum(), snapshotFreezes.sum()));
+        for (LatencyHistogram histogram : new LatencyHistogram[]{moveLatency, dispatchLatency, repaintLatency, snapshotLatency})
+            sb.append(histogram).append('\n');
+        return sb.toString();
+    }
+
+    // 每 periodSeconds 秒把 dump() 打到 out；后台守护线程，取消返回的 future 即停
+    public static synchronized ScheduledFuture<?> startDump(long periodSeconds, PrintStream out){
+        if (dumper == null) {
+            dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "car-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return dumper.scheduleAtFixedRate(() -> out.print(dump()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    // 注册到平台 MBeanServer，重复调用无副作用
+    public static synchronized void registerMBean(){
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("car:type=Metrics");
+            if (!server.isRegistered(name)) server.registerMBean(new Bean(), name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register car metrics MBean", e);
+        }
+    }
+
+    private static double p99Micros(LatencyHistogram histogram){
+        return histogram.getPercentile(0.99) / 1000.0;
+    }
+
+    private static class Bean implements CarMetricsMXBean {
+        @Override public boolean isEnabled() { return enabled; }
+        @Override public void setEnabled(boolean on) { CarMetrics.setEnabled(on); }
+        @Override public void reset() { CarMetrics.reset(); }
+        @Override public String getDump() { return dump(); }
+
+        @Override public long getMoveAttempts() { return moveLatency.getCount(); }
+        @Override public long getMoveSuccesses() { return moveSuccesses.sum(); }
+        @Override public long getCollisions() { return collisions.sum(); }
+        @Override public long getWallHits() { return wallHits.sum(); }
+        @Override public long getCasRetries() { return casRetries.sum(); }
+        @Override public long getWallsAdded() { return wallsAdded.sum(); }
+        @Override public long getWallsRemoved() { return wallsRemoved.sum(); }
+        @Override public long getSnapshotFreezes() { return snapshotFreezes.sum(); }
+
+        @Override public double getMoveP99Micros() { return p99Micros(moveLatency); }
+        @Override public double getDispatchP99Micros() { return p99Micros(dispatchLatency); }
+        @Override public double getRepaintP99Micros() { return p99Micros(repaintLatency); }
+        @Override public double getSnapshotP99Micros() { return p99Micros(snapshotLatency); }
+    }
+}
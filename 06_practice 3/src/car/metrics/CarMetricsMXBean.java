@@ -0,0 +1,23 @@
+package car.metrics;
+
+// CarMetrics 在 JMX 里的样子（ObjectName car:type=Metrics），jconsole 里可以直接开关和清零
+public interface CarMetricsMXBean {
+    boolean isEnabled();
+    void setEnabled(boolean enabled);
+    void reset();
+    String getDump();
+
+    long getMoveAttempts();
+    long getMoveSuccesses();
+    long getCollisions();
+    long getWallHits();
+    long getCasRetries();
+    long getWallsAdded();
+    long getWallsRemoved();
+    long getSnapshotFreezes();
+
+    double getMoveP99Micros();
+    double getDispatchP99Micros();
+    double getRepaintP99Micros();
+    double getSnapshotP99Micros();
+}
@@ -0,0 +1,95 @@
+package car.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 纳秒延迟直方图，仿 HdrHistogram 的对数-线性分桶：每个 2 的幂区间再均分 32 个桶，
+ * 相对误差约 3%，最大记录约 2^40 ns（18 分钟），更大的值记在最后一桶。
+ * 每个桶是一个 LongAdder，多线程同时记录时自动分段，不争同一个计数；
+ * 记一次只动桶和总和两个计数，总次数读的时候再把各桶加起来。
+ **/
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5, SUB = 1 << SUB_BITS;
+    private static final int MAX_BITS = 40;
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB;
+
+    private final String name;
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram(String name){
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    public void record(long nanos){
+        if (nanos < 0) nanos = 0;
+        counts[bucketOf(nanos)].increment();
+        sum.add(nanos);
+        if (nanos > max.get()) max.accumulate(nanos);
+    }
+
+    // 小于 SUB 的值一值一桶；之后每个 2 的幂区间 SUB 个桶
+    private static int bucketOf(long v){
+        if (v < SUB) return (int) v;
+        int msb = 63 - Long.numberOfLeadingZeros(v);
+        if (msb >= MAX_BITS) return BUCKETS - 1;
+        int shift = msb - SUB_BITS;
+        return (shift + 1) * SUB + (int) (v >>> shift) - SUB;
+    }
+
+    // 桶里最大的值（报告分位数时取上界，宁可偏大）
+    private static long upperBound(int bucket){
+        if (bucket < SUB) return bucket;
+        int shift = bucket / SUB - 1;
+        long sub = bucket % SUB + SUB;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public long getCount(){
+        long n = 0;
+        for (LongAdder count : counts) n += count.sum();
+        return n;
+    }
+
+    public long getMax(){ return max.get(); }
+
+    public double getMean(){
+        long n = getCount();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // q 在 0..1 之间，例如 0.99；没有记录时返回 0
+    public long getPercentile(double q){
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += snapshot[i] = counts[i].sum();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n)), seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset(){
+        for (LongAdder count : counts) count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    // 一行摘要，单位微秒
+    @Override
+    public String toString(){
+        return String.format("%-16s n=%-10d mean=%8.1f p50=%8.1f p99=%8.1f p99.9=%8.1f max=%9.1f us",
+                name, getCount(), getMean() / 1000, getPercentile(0.5) / 1000.0, getPercentile(0.99) / 1000.0,
+                getPercentile(0.999) / 1000.0, getMax() / 1000.0);
+    }
+}
@@ -0,0 +1,195 @@
+package car.route;
+
+import car.CarServer;
+import car.FieldMatrix;
+import car.FieldSnapshot;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * 到某个目标格的距离场：每格存走到目标的最少步数，只绕墙、不管车，走不到是 UNREACHABLE。
+ * 去同一个目标的车共用一份，沿着距离递减的方向走就是最短路。
+ * 墙变了由 Router 调 wallAdded / wallRemoved 只修补受影响的那一片，不整张重算。
+ **/
+public class DistanceField {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    private static final CarServer.Direction[] DIRECTIONS = CarServer.Direction.values();
+
+    final int goal;
+    private final int rows, cols;
+    private final int[] dist;
+    volatile long lastUsed; // Router 淘汰缓存用
+
+    DistanceField(int goal, FieldSnapshot walls){
+        this.goal = goal;
+        this.rows = walls.rows;
+        this.cols = walls.cols;
+        this.dist = new int[rows * cols];
+        rebuild(walls);
+    }
+
+    public int distance(int r, int c){
+        return dist[r * cols + c];
+    }
+
+    /**
+     * 从 (r,c) 往目标走的下一步；已到达或走不到返回 null。
+     * 有多个同样近的方向时优先选眼下是空格的，起点随机，避免大家挤同一条路。
+     * 下坡方向全被车占着时仍返回其中一个，移动失败后下一轮再试。
+     **/
+    public CarServer.Direction nextStep(int r, int c, FieldMatrix field){
+        int cell = r * cols + c;
+        int d = dist[cell];
+        if (d == UNREACHABLE || d == 0) return null;
+        int start = (int) (System.nanoTime() & 3);
+        CarServer.Direction blocked = null;
+        for (int i = 0; i < 4; i++) {
+            int dir = (start + i) & 3;
+            int n = neighbor(cell, dir);
+            if (n < 0 || dist[n] != d - 1) continue;
+            if (field.getCellState(n / cols, n % cols) == FieldMatrix.CellState.EMPTY) return DIRECTIONS[dir];
+            if (blocked == null) blocked = DIRECTIONS[dir];
+        }
+        return blocked;
+    }
+
+    /* ===== 整张重算：从目标格 BFS ===== */
+    void rebuild(FieldSnapshot walls){
+        Arrays.fill(dist, UNREACHABLE);
+        if (isWall(walls, goal)) return;
+        int[] queue = new int[dist.length];
+        int head = 0, tail = 0;
+        dist[goal] = 0;
+        queue[tail++] = goal;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int dir = 0; dir < 4; dir++) {
+                int n = neighbor(u, dir);
+                if (n < 0 || dist[n] != UNREACHABLE || isWall(walls, n)) continue;
+                dist[n] = dist[u] + 1;
+                queue[tail++] = n;
+            }
+        }
+    }
+
+    /* ===== 局部修补，walls 是变化之后的墙 ===== */
+    // 格子变成墙：先找出最短路只能经过它的格子并作废，再从周围还有效的格子往里重新扩散
+    void wallAdded(int cell, FieldSnapshot walls){
+        if (cell == goal) {
+            Arrays.fill(dist, UNREACHABLE);
+            return;
+        }
+        int old = dist[cell];
+        if (old == UNREACHABLE) return;
+        dist[cell] = UNREACHABLE;
+
+        // 1) 按距离从小到大检查，没有别的“上一步”邻居的格子作废
+        IntList queue = new IntList();
+        IntList affected = new IntList();
+        pushDependents(cell, old, queue);
+        for (int i = 0; i < queue.size; i++) {
+            int v = queue.items[i];
+            int d = dist[v];
+            if (d == UNREACHABLE || hasNeighborAt(v, d - 1)) continue;
+            dist[v] = UNREACHABLE;
+            affected.add(v);
+            pushDependents(v, d, queue);
+        }
+        if (affected.size == 0) return;
+
+        // 2) 作废的格子从有效邻居那里拿初始距离，再按距离顺序向内扩散（多源 Dijkstra）
+        PriorityQueue<Long> frontier = new PriorityQueue<>();
+        for (int i = 0; i < affected.size; i++) {
+            int v = affected.items[i];
+            if (isWall(walls, v)) continue;
+            int best = UNREACHABLE;
+            for (int dir = 0; dir < 4; dir++) {
+                int n = neighbor(v, dir);
+                if (n >= 0 && dist[n] != UNREACHABLE) best = Math.min(best, dist[n] + 1);
+            }
+            if (best != UNREACHABLE) {
+                dist[v] = best;
+                frontier.add(((long) best << 32) | v);
+            }
+        }
+        while (!frontier.isEmpty()) {
+            long entry = frontier.poll();
+            int d = (int) (entry >>> 32), v = (int) entry;
+            if (d != dist[v]) continue;
+            for (int dir = 0; dir < 4; dir++) {
+                int n = neighbor(v, dir);
+                if (n < 0 || dist[n] <= d + 1 || isWall(walls, n)) continue;
+                dist[n] = d + 1;
+                frontier.add(((long) (d + 1) << 32) | n);
+            }
+        }
+    }
+
+    // 墙被拆掉：这一格从邻居拿距离，然后只往变近的方向扩散
+    void wallRemoved(int cell, FieldSnapshot walls){
+        if (cell == goal) {
+            rebuild(walls);
+            return;
+        }
+        int best = UNREACHABLE;
+        for (int dir = 0; dir < 4; dir++) {
+            int n = neighbor(cell, dir);
+            if (n >= 0 && dist[n] != UNREACHABLE) best = Math.min(best, dist[n] + 1);
+        }
+        if (best >= dist[cell]) return;
+        dist[cell] = best;
+        IntList queue = new IntList();
+        queue.add(cell);
+        for (int i = 0; i < queue.size; i++) {
+            int u = queue.items[i];
+            for (int dir = 0; dir < 4; dir++) {
+                int n = neighbor(u, dir);
+                if (n < 0 || dist[n] <= dist[u] + 1 || isWall(walls, n)) continue;
+                dist[n] = dist[u] + 1;
+                queue.add(n);
+            }
+        }
+    }
+
+    /* ===== 工具方法 ===== */
+    // dir 和 CarServer.Direction 的顺序一致：UP, DOWN, LEFT, RIGHT；出界返回 -1
+    private int neighbor(int cell, int dir){
+        switch (dir) {
+            case 0: return cell >= cols ? cell - cols : -1;
+            case 1: return cell + cols < dist.length ? cell + cols : -1;
+            case 2: return cell % cols != 0 ? cell - 1 : -1;
+            default: return cell % cols != cols - 1 ? cell + 1 : -1;
+        }
+    }
+
+    private boolean hasNeighborAt(int cell, int d){
+        for (int dir = 0; dir < 4; dir++) {
+            int n = neighbor(cell, dir);
+            if (n >= 0 && dist[n] == d) return true;
+        }
+        return false;
+    }
+
+    // 距离是 d+1 的邻居可能是靠 cell 过来的，放进待检查队列
+    private void pushDependents(int cell, int d, IntList queue){
+        for (int dir = 0; dir < 4; dir++) {
+            int n = neighbor(cell, dir);
+            if (n >= 0 && dist[n] == d + 1) queue.add(n);
+        }
+    }
+
+    private boolean isWall(FieldSnapshot walls, int cell){
+        return walls.isWall(cell / cols, cell % cols);
+    }
+
+    static class IntList {
+        int[] items = new int[16];
+        int size;
+
+        void add(int v){
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = v;
+        }
+    }
+}
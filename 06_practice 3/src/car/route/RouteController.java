@@ -0,0 +1,38 @@
+package car.route;
+
+import car.Car;
+import car.CarServer;
+import car.Position;
+import car.sim.CarController;
+
+import java.util.function.Supplier;
+
+/**
+ * 按 Router 给的最短路开向目标的车；到了（或目标走不到）就从 goals 取下一个目标。
+ * 去同一个目标的车共用 Router 里的一份距离场。
+ **/
+public class RouteController implements CarController {
+    private final Router router;
+    private final Supplier<Position> goals;
+    private Position goal;
+
+    public RouteController(Router router, Supplier<Position> goals){
+        this.router = router;
+        this.goals = goals;
+    }
+
+    public Position getGoal(){
+        return goal;
+    }
+
+    @Override
+    public CarServer.Direction nextMove(Car car, long tick){
+        if (goal == null) goal = goals.get();
+        CarServer.Direction direction = router.nextDirection(car.getPackedPosition(), goal);
+        if (direction == null) {
+            // 到了，或者目标被墙围住了：换一个目标，这一轮先不动
+            goal = goals.get();
+        }
+        return direction;
+    }
+}
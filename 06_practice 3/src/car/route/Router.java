@@ -0,0 +1,212 @@
+package car.route;
+
+import car.CarServer;
+import car.FieldMatrix;
+import car.FieldSnapshot;
+import car.Position;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 地图上的寻路服务。
+ * 按目标格缓存 DistanceField，去同一个目标的车共用一次计算，车再多也只是查表；
+ * 单次查询可以用 findPath（A*，不缓存）。
+ * 每次查询先看 FieldMatrix.wallVersion，墙变了就按 FieldMatrix 的改墙记录只看变过的格子（catchUpWalls），
+ * 只对这些格子修补缓存的距离场；记录跟不上时才退回整张快照对比。
+ **/
+public class Router {
+    // 一次变化的墙超过总格数的这个比例，修补不如直接丢掉缓存按需重算
+    private static final int REBUILD_RATIO = 16;
+
+    private final FieldMatrix field;
+    private final int maxGoals;
+    private final Map<Integer, DistanceField> fields = new ConcurrentHashMap<>();
+    // 查询拿读锁，对比墙、修补距离场拿写锁
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FieldSnapshot walls, spare;
+    private volatile long syncedWallVersion;
+    private final AtomicLong useClock = new AtomicLong();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), repairs = new LongAdder();
+
+    public Router(FieldMatrix field){
+        this(field, 16);
+    }
+
+    // maxGoals：最多缓存多少个目标的距离场（每个占 rows*cols 个 int）
+    public Router(FieldMatrix field, int maxGoals){
+        if (maxGoals < 1) throw new IllegalArgumentException("maxGoals must be positive");
+        this.field = field;
+        this.maxGoals = maxGoals;
+        this.syncedWallVersion = field.wallVersion();
+        this.walls = field.snapshot();
+    }
+
+    /* ===== 查询 ===== */
+    // 从 from 去 goal 的下一步，已到达或走不到返回 null
+    public CarServer.Direction nextDirection(Position from, Position goal){
+        return nextDirection(from.packed(), goal);
+    }
+
+    // from 是 Position.pack 打包的坐标（Car.getPackedPosition），每步调用不建 Position
+    public CarServer.Direction nextDirection(long from, Position goal){
+        syncIfNeeded();
+        lock.readLock().lock();
+        try {
+            return fieldFor(goal).nextStep(Position.rowOf(from), Position.colOf(from), field);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 绕墙的最短步数，走不到返回 DistanceField.UNREACHABLE
+    public int distance(Position from, Position goal){
+        syncIfNeeded();
+        lock.readLock().lock();
+        try {
+            return fieldFor(goal).distance(from.row, from.col);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 一次性的 A* 寻路（曼哈顿距离作启发），不进缓存。
+     * 返回从 from 的下一格到 goal 的格子序列；from == goal 返回空表，走不到返回 null。
+     **/
+    public List<Position> findPath(Position from, Position goal){
+        syncIfNeeded();
+        lock.readLock().lock();
+        try {
+            return aStar(walls, from.row * walls.cols + from.col, goal.row * walls.cols + goal.col);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getHits(){ return hits.sum(); }
+    public long getMisses(){ return misses.sum(); }
+    public long getRepairs(){ return repairs.sum(); }
+    public int getCachedGoals(){ return fields.size(); }
+
+    /* ===== 缓存 ===== */
+    // 调用方持有读锁
+    private DistanceField fieldFor(Position goal){
+        int cell = goal.row * walls.cols + goal.col;
+        DistanceField f = fields.get(cell);
+        if (f == null) {
+            misses.increment();
+            f = fields.computeIfAbsent(cell, g -> new DistanceField(g, walls));
+            if (fields.size() > maxGoals) evictOldest(cell);
+        } else {
+            hits.increment();
+        }
+        f.lastUsed = useClock.incrementAndGet();
+        return f;
+    }
+
+    private void evictOldest(int keep){
+        while (fields.size() > maxGoals) {
+            DistanceField oldest = null;
+            for (DistanceField f : fields.values())
+                if (f.goal != keep && (oldest == null || f.lastUsed < oldest.lastUsed)) oldest = f;
+            if (oldest == null) return;
+            fields.remove(oldest.goal, oldest);
+        }
+    }
+
+    /* ===== 墙变化：跟上改墙记录后局部修补 ===== */
+    private void syncIfNeeded(){
+        if (field.wallVersion() != syncedWallVersion) sync();
+    }
+
+    private void sync(){
+        lock.writeLock().lock();
+        try {
+            long version = field.wallVersion();
+            if (version == syncedWallVersion) return;
+            DistanceField.IntList added = new DistanceField.IntList(), removed = new DistanceField.IntList();
+            // 只改变过的格子，walls 原地跟上；花的时间和变了多少墙有关，和地图大小无关
+            FieldSnapshot next = walls;
+            long synced = field.catchUpWalls(walls, syncedWallVersion, added::add, removed::add);
+            if (synced < 0) {
+                // 落下太多，记录已被覆盖：整张快照对比。先读版本再拍快照，快照之后又变的墙下一次再跟
+                synced = version;
+                if (added.size + removed.size > 0) fields.clear(); // 跟到一半的格子已经改进 walls，修补对不上
+                added.size = removed.size = 0;
+                next = field.snapshot(spare);
+                next.diffWalls(walls, added::add, removed::add);
+            }
+            int changed = added.size + removed.size;
+            if (changed > next.rows * next.cols / REBUILD_RATIO) {
+                fields.clear();
+            } else if (changed > 0) {
+                for (DistanceField f : fields.values()) {
+                    for (int i = 0; i < added.size; i++) f.wallAdded(added.items[i], next);
+                    for (int i = 0; i < removed.size; i++) f.wallRemoved(removed.items[i], next);
+                }
+                repairs.add(changed);
+            }
+            if (next != walls) {
+                spare = walls;
+                walls = next;
+            }
+            syncedWallVersion = synced;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* ===== A* ===== */
+    private static List<Position> aStar(FieldSnapshot walls, int start, int goal){
+        int cols = walls.cols, cells = walls.rows * cols;
+        if (isWall(walls, start) || isWall(walls, goal)) return null;
+        if (start == goal) return Collections.emptyList();
+        int[] g = new int[cells];
+        int[] cameFrom = new int[cells];
+        Arrays.fill(g, Integer.MAX_VALUE);
+        g[start] = 0;
+        int gr = goal / cols, gc = goal % cols;
+        PriorityQueue<Long> open = new PriorityQueue<>();
+        open.add(key(manhattan(start, gr, gc, cols), start));
+        while (!open.isEmpty()) {
+            int u = (int) (long) open.poll();
+            if (u == goal) break;
+            int ur = u / cols, uc = u % cols;
+            for (int dir = 0; dir < 4; dir++) {
+                int nr = ur + (dir == 0 ? -1 : dir == 1 ? 1 : 0);
+                int nc = uc + (dir == 2 ? -1 : dir == 3 ? 1 : 0);
+                if (nr < 0 || nr >= walls.rows || nc < 0 || nc >= cols || walls.isWall(nr, nc)) continue;
+                int n = nr * cols + nc;
+                if (g[u] + 1 >= g[n]) continue;
+                g[n] = g[u] + 1;
+                cameFrom[n] = u;
+                open.add(key(g[n] + Math.abs(nr - gr) + Math.abs(nc - gc), n));
+            }
+        }
+        if (g[goal] == Integer.MAX_VALUE) return null;
+        Position[] path = new Position[g[goal]];
+        for (int cell = goal, i = path.length - 1; i >= 0; cell = cameFrom[cell], i--)
+            path[i] = new Position(cell / cols, cell % cols);
+        return Arrays.asList(path);
+    }
+
+    private static long key(int priority, int cell){
+        return ((long) priority << 32) | cell;
+    }
+
+    private static int manhattan(int cell, int gr, int gc, int cols){
+        return Math.abs(cell / cols - gr) + Math.abs(cell % cols - gc);
+    }
+
+    private static boolean isWall(FieldSnapshot walls, int cell){
+        return walls.isWall(cell / walls.cols, cell % walls.cols);
+    }
+}
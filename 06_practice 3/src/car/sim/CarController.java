@@ -0,0 +1,15 @@
+package car.sim;
+
+import car.Car;
+import car.CarServer;
+
+/**
+ * 车的行为：每当车到了该动的 tick，调度器问它这一步往哪走。
+ * 同一辆车的回调不会并发执行。
+ **/
+public interface CarController {
+    // 返回 null 表示这一轮原地不动
+    CarServer.Direction nextMove(Car car, long tick);
+
+    default void moveResult(Car car, CarServer.Direction direction, boolean success, long tick) {}
+}
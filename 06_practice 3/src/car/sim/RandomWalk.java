@@ -0,0 +1,24 @@
+package car.sim;
+
+import car.Car;
+import car.CarServer;
+
+import java.util.Random;
+
+// 和 Main 里的 CarMover 一样：一直往一个方向开，撞了就随机换方向
+public class RandomWalk implements CarController {
+    private final Random random = new Random();
+    private CarServer.Direction direction = CarServer.Direction.DOWN;
+
+    @Override
+    public CarServer.Direction nextMove(Car car, long tick) {
+        return direction;
+    }
+
+    @Override
+    public void moveResult(Car car, CarServer.Direction direction, boolean success, long tick) {
+        if (!success) {
+            this.direction = CarServer.Direction.values()[random.nextInt(4)];
+        }
+    }
+}
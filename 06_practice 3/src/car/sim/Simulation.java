@@ -0,0 +1,260 @@
+package car.sim;
+
+import car.Car;
+import car.CarServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 按逻辑时钟驱动的模拟调度器，替代“一车一线程 + Thread.sleep”。
+ * 车的 speed（毫秒）换算成 tick 间隔；每个 tick 把到期的车分批交给固定大小的线程池，
+ * 全部处理完再进入下一个 tick。
+ * 实时模式按 tickMillis 对齐墙钟；快进模式不睡眠，并直接跳过没有车到期的 tick。
+ * 打开成组移动（setGroupMoves）后，一个 tick 里到期的车先各自决定方向，再交给 CarServer.moveCars 一起走，
+ * 排成一串的车同一个 tick 里一起前进，不再取决于谁先被处理。
+ **/
+public class Simulation {
+    // 一个 tick 里到期的车少于这个数就在调度线程上直接跑，不值得分发
+    private static final int PARALLEL_THRESHOLD = 64;
+    // 后台快进时每次推进的 tick 数，期间不检查 stop / 模式切换
+    private static final long FAST_FORWARD_SLICE = 1024;
+
+    private static class Entry {
+        final Car car;
+        final CarController controller;
+        final long interval;
+        volatile boolean cancelled;
+
+        Entry(Car car, CarController controller, long interval) {
+            this.car = car;
+            this.controller = controller;
+            this.interval = interval;
+        }
+    }
+
+    private final long tickMillis;
+    private final int workerCount;
+    private final ExecutorService workers;
+
+    // agenda 只由推进时钟的线程访问；其他线程注册的车先进 pending
+    private final TreeMap<Long, List<Entry>> agenda = new TreeMap<>();
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final Map<Car, Entry> entries = new ConcurrentHashMap<>();
+
+    private volatile long tick;
+    private volatile boolean fastForward;
+    private volatile boolean running;
+    private volatile CarServer groupServer;
+    private Thread clock;
+
+    public Simulation(int workerCount, long tickMillis) {
+        if (workerCount < 1 || tickMillis < 1) throw new IllegalArgumentException();
+        this.workerCount = workerCount;
+        this.tickMillis = tickMillis;
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread t = new Thread(r, "sim-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public Simulation(int workerCount) {
+        this(workerCount, 10);
+    }
+
+    /* ===== 注册 / 注销 ===== */
+    public void register(Car car, CarController controller) {
+        long interval = Math.max(1, (car.getSpeed() + tickMillis - 1) / tickMillis);
+        Entry entry = new Entry(car, controller, interval);
+        Entry old = entries.put(car, entry);
+        if (old != null) old.cancelled = true;
+        pending.add(entry);
+    }
+
+    public void unregister(Car car) {
+        Entry entry = entries.remove(car);
+        if (entry != null) entry.cancelled = true;
+    }
+
+    public long getTick() { return tick; }
+    public long getTickMillis() { return tickMillis; }
+    public int size() { return entries.size(); }
+
+    // 运行中也可以切换，下一个 tick 生效
+    public void setFastForward(boolean fastForward) {
+        this.fastForward = fastForward;
+    }
+
+    // 非 null 时每个 tick 到期的车经 server.moveCars 一起走（车都要属于这个 server）；null 恢复逐辆走。下一个 tick 生效
+    public void setGroupMoves(CarServer server) {
+        this.groupServer = server;
+    }
+
+    /* ===== 推进时钟 ===== */
+
+    // 后台线程连续推进，直到 stop()
+    public synchronized void start() {
+        if (running) throw new IllegalStateException("Simulation already running");
+        running = true;
+        clock = new Thread(() -> {
+            long origin = System.nanoTime();
+            long originTick = tick;
+            while (running) {
+                if (fastForward) {
+                    advance(tick + FAST_FORWARD_SLICE, true);
+                    origin = System.nanoTime();
+                    originTick = tick;
+                    continue;
+                }
+                long wakeAt = origin + (tick + 1 - originTick) * tickMillis * 1_000_000L;
+                long sleep = wakeAt - System.nanoTime();
+                if (sleep > 0) {
+                    try {
+                        Thread.sleep(sleep / 1_000_000L, (int) (sleep % 1_000_000L));
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                advance(tick + 1, false);
+            }
+        }, "sim-clock");
+        clock.setDaemon(true);
+        clock.start();
+    }
+
+    public synchronized void stop() throws InterruptedException {
+        running = false;
+        if (clock != null) {
+            clock.interrupt();
+            clock.join();
+            clock = null;
+        }
+    }
+
+    // 在调用线程上快进 ticks 个 tick，不睡眠；返回处理的车次
+    public synchronized long runTicks(long ticks) {
+        if (running) throw new IllegalStateException("Simulation is running in background");
+        return advance(tick + ticks, true);
+    }
+
+    public void shutdown() throws InterruptedException {
+        stop();
+        workers.shutdown();
+    }
+
+    // 把时钟推进到 target；skipIdle 为真时直接跳到下一个有车到期的 tick
+    private long advance(long target, boolean skipIdle) {
+        long processed = 0;
+        while (tick < target) {
+            drainPending();
+            Long next = agenda.isEmpty() ? null : agenda.firstKey();
+            long nextTick = tick + 1;
+            if (skipIdle) nextTick = next == null ? target : Math.max(nextTick, Math.min(next, target));
+            tick = nextTick;
+            if (next != null && next == nextTick) {
+                List<Entry> due = agenda.remove(nextTick);
+                processed += process(due, nextTick);
+            }
+        }
+        return processed;
+    }
+
+    private void drainPending() {
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            schedule(entry, tick + entry.interval);
+        }
+    }
+
+    private void schedule(Entry entry, long due) {
+        agenda.computeIfAbsent(due, k -> new ArrayList<>()).add(entry);
+    }
+
+    private int process(List<Entry> due, long now) {
+        CarServer group = groupServer;
+        // 成组时各批只决定方向，写进 decided，统一在后面一起走
+        CarServer.Direction[] decided = group == null ? null : new CarServer.Direction[due.size()];
+        if (due.size() < PARALLEL_THRESHOLD || workerCount == 1) {
+            runBatch(due, 0, due.size(), now, decided);
+        } else {
+            int chunk = (due.size() + workerCount - 1) / workerCount;
+            List<Callable<Void>> tasks = new ArrayList<>(workerCount);
+            for (int from = 0; from < due.size(); from += chunk) {
+                int start = from, end = Math.min(from + chunk, due.size());
+                tasks.add(() -> {
+                    runBatch(due, start, end, now, decided);
+                    return null;
+                });
+            }
+            try {
+                workers.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (group != null) moveGroup(due, decided, now, group);
+        int moved = 0;
+        for (Entry entry : due) {
+            if (entry.cancelled) continue;
+            schedule(entry, now + entry.interval);
+            moved++;
+        }
+        return moved;
+    }
+
+    private static void runBatch(List<Entry> due, int from, int to, long now, CarServer.Direction[] decided) {
+        for (int i = from; i < to; i++) {
+            Entry entry = due.get(i);
+            if (entry.cancelled) continue;
+            try {
+                CarServer.Direction direction = entry.controller.nextMove(entry.car, now);
+                if (direction == null) continue;
+                if (decided != null) {
+                    decided[i] = direction;
+                    continue;
+                }
+                boolean success = entry.car.step(direction);
+                entry.controller.moveResult(entry.car, direction, success, now);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void moveGroup(List<Entry> due, CarServer.Direction[] decided, long now, CarServer server) {
+        int n = 0;
+        for (CarServer.Direction d : decided) if (d != null) n++;
+        if (n == 0) return;
+        Car[] cars = new Car[n];
+        CarServer.Direction[] directions = new CarServer.Direction[n];
+        Entry[] owners = new Entry[n];
+        for (int i = 0, k = 0; i < decided.length; i++) {
+            if (decided[i] == null) continue;
+            owners[k] = due.get(i);
+            cars[k] = owners[k].car;
+            directions[k++] = decided[i];
+        }
+        boolean[] moved;
+        try {
+            moved = server.moveCars(cars, directions);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return;
+        }
+        for (int k = 0; k < n; k++) {
+            try {
+                owners[k].controller.moveResult(cars[k], directions[k], moved[k], now);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
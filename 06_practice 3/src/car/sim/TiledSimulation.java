@@ -0,0 +1,296 @@
+package car.sim;
+
+import car.Car;
+import car.CarServer;
+import car.FieldMatrix;
+import car.Position;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按地图分块的调度器：地图切成 tileSize x tileSize 的块，每块连同块里的车归一个工作线程，
+ * 一个 tick 分两段：
+ *   1. 各线程只处理自己块里到期的车，起点终点都在块内的移动直接走——这些格子只有它在写，CAS 不会冲突；
+ *      要跨出块的移动先不走，把车交给目标块。
+ *   2. 所有线程做完第 1 段后，目标块的主人依次执行交过来的跨块移动，成功的车归它，失败的退回原块。
+ * 块里的车表只由主人读写，两段之间靠 invokeAll 的完成先后保证可见，不加锁；跨块只经过两个队列。
+ * 格子仍然在同一个 FieldMatrix 里，快照、墙、监听者都不受影响。
+ * 格子按 r*cols+c 线性排，每 64 格一组（一个空格索引 word、四个格子 word），整组归同一个块：
+ * 块宽按 64 列取整，每行的块边界落在组边界上，相邻块不会共用 word。cols 是 64 的倍数时块就是矩形，
+ * 否则各行的边界随行首在组里的偏移错开几列，块是阶梯形的。
+ * 车的 speed 换算成 tick 间隔的方式和 Simulation 相同。
+ **/
+public class TiledSimulation {
+    // 一组 64 格：空格索引一个 long 管 64 格，格子一个 int 管 16 格
+    private static final int COL_ALIGN = 64;
+
+    private static class Entry {
+        final Car car;
+        final CarController controller;
+        final long interval;
+        long due;
+        CarServer.Direction crossing; // 交给别的块时要走的方向
+        volatile boolean cancelled;
+
+        Entry(Car car, CarController controller, long interval) {
+            this.car = car;
+            this.controller = controller;
+            this.interval = interval;
+        }
+    }
+
+    private static class Tile {
+        final List<Entry> cars = new ArrayList<>();                              // 只有主人碰
+        final ConcurrentLinkedQueue<Entry> arrivals = new ConcurrentLinkedQueue<>(); // 新注册的、跨块失败退回的
+        final ConcurrentLinkedQueue<Entry> crossings = new ConcurrentLinkedQueue<>(); // 要走进本块的
+    }
+
+    private final FieldMatrix field;
+    private final int tileHeight, tileWidth, tileRows, tileCols;
+    private final Tile[] tiles;
+    private final long tickMillis;
+    private final int workerCount;
+    private final ExecutorService workers;
+    private final Map<Car, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder handoffs = new LongAdder();
+
+    private volatile long tick;
+    private volatile boolean running;
+    private Thread clock;
+
+    public TiledSimulation(FieldMatrix field, int tileSize, int workerCount, long tickMillis) {
+        if (tileSize < 1 || workerCount < 1 || tickMillis < 1) throw new IllegalArgumentException();
+        this.field = field;
+        this.tileHeight = Math.min(tileSize, field.rows);
+        this.tileWidth = Math.min((tileSize + COL_ALIGN - 1) / COL_ALIGN * COL_ALIGN, field.cols);
+        this.tileRows = (field.rows + tileHeight - 1) / tileHeight;
+        this.tileCols = (field.cols + tileWidth - 1) / tileWidth;
+        this.tiles = new Tile[tileRows * tileCols];
+        for (int i = 0; i < tiles.length; i++) tiles[i] = new Tile();
+        this.workerCount = Math.min(workerCount, tiles.length);
+        this.tickMillis = tickMillis;
+        this.workers = Executors.newFixedThreadPool(this.workerCount, r -> {
+            Thread t = new Thread(r, "tile-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public TiledSimulation(FieldMatrix field, int tileSize, int workerCount) {
+        this(field, tileSize, workerCount, 10);
+    }
+
+    /* ===== 注册 / 注销 ===== */
+    public void register(Car car, CarController controller) {
+        long interval = Math.max(1, (car.getSpeed() + tickMillis - 1) / tickMillis);
+        Entry entry = new Entry(car, controller, interval);
+        entry.due = tick + interval;
+        Entry old = entries.put(car, entry);
+        if (old != null) old.cancelled = true;
+        tiles[tileOf(car.getPackedPosition())].arrivals.add(entry);
+    }
+
+    public void unregister(Car car) {
+        Entry entry = entries.remove(car);
+        if (entry != null) entry.cancelled = true;
+    }
+
+    public long getTick() { return tick; }
+    public int size() { return entries.size(); }
+    public int getTileCount() { return tiles.length; }
+    public int getTileWidth() { return tileWidth; }
+    public int getTileHeight() { return tileHeight; }
+    // 到目前为止交给别的块执行的移动次数
+    public long getHandoffs() { return handoffs.sum(); }
+
+    /* ===== 推进时钟 ===== */
+    // 后台线程按 tickMillis 对齐墙钟推进，直到 stop()
+    public synchronized void start() {
+        if (running) throw new IllegalStateException("Simulation already running");
+        running = true;
+        clock = new Thread(() -> {
+            long origin = System.nanoTime();
+            long originTick = tick;
+            while (running) {
+                long sleep = origin + (tick + 1 - originTick) * tickMillis * 1_000_000L - System.nanoTime();
+                if (sleep > 0) {
+                    try {
+                        Thread.sleep(sleep / 1_000_000L, (int) (sleep % 1_000_000L));
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                advance();
+            }
+        }, "tile-clock");
+        clock.setDaemon(true);
+        clock.start();
+    }
+
+    public synchronized void stop() throws InterruptedException {
+        running = false;
+        if (clock != null) {
+            clock.interrupt();
+            clock.join();
+            clock = null;
+        }
+    }
+
+    // 在调用线程上连续推进 ticks 个 tick，不睡眠；返回处理的车次
+    public synchronized long runTicks(long ticks) {
+        if (running) throw new IllegalStateException("Simulation is running in background");
+        long processed = 0;
+        for (long i = 0; i < ticks; i++) processed += advance();
+        return processed;
+    }
+
+    public void shutdown() throws InterruptedException {
+        stop();
+        workers.shutdown();
+    }
+
+    private long advance() {
+        long now = tick + 1;
+        tick = now;
+        long[] processed = new long[workerCount];
+        runPhase(w -> processed[w] += moveInside(w, now));
+        runPhase(w -> processed[w] += moveAcross(w, now));
+        long total = 0;
+        for (long n : processed) total += n;
+        return total;
+    }
+
+    private interface Phase {
+        void run(int worker);
+    }
+
+    private void runPhase(Phase phase) {
+        if (workerCount == 1) {
+            phase.run(0);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(workerCount);
+        for (int w = 0; w < workerCount; w++) {
+            int worker = w;
+            tasks.add(() -> {
+                phase.run(worker);
+                return null;
+            });
+        }
+        try {
+            workers.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* ===== 第 1 段：块内移动 ===== */
+    private int moveInside(int worker, long now) {
+        int processed = 0;
+        for (int t = firstTile(worker), end = firstTile(worker + 1); t < end; t++) {
+            Tile tile = tiles[t];
+            Entry arrived;
+            while ((arrived = tile.arrivals.poll()) != null) {
+                if (!arrived.cancelled) tile.cars.add(arrived);
+            }
+            List<Entry> cars = tile.cars;
+            for (int i = 0; i < cars.size(); ) {
+                Entry entry = cars.get(i);
+                if (entry.cancelled) {
+                    removeAt(cars, i);
+                    continue;
+                }
+                long from = entry.car.getPackedPosition();
+                int home = tileOf(from);
+                if (home != t) {
+                    // 车被别人挪出了本块（脚本、跨块交接以外的移动），交给现在所在的块
+                    removeAt(cars, i);
+                    tiles[home].arrivals.add(entry);
+                    continue;
+                }
+                i++;
+                if (entry.due > now) continue;
+                entry.due = now + entry.interval;
+                processed++;
+                CarServer.Direction direction = next(entry, now);
+                if (direction == null) continue;
+                int target = tileOf(Position.move(from, direction, 1));
+                if (target == t) {
+                    step(entry, direction, now);
+                } else {
+                    entry.crossing = direction;
+                    removeAt(cars, --i);
+                    tiles[target].crossings.add(entry);
+                    handoffs.increment();
+                }
+            }
+        }
+        return processed;
+    }
+
+    /* ===== 第 2 段：跨块移动，由目标块的主人执行 ===== */
+    private int moveAcross(int worker, long now) {
+        for (int t = firstTile(worker), end = firstTile(worker + 1); t < end; t++) {
+            Tile tile = tiles[t];
+            Entry entry;
+            while ((entry = tile.crossings.poll()) != null) {
+                if (entry.cancelled) continue;
+                if (step(entry, entry.crossing, now)) tile.cars.add(entry);
+                else tiles[tileOf(entry.car.getPackedPosition())].arrivals.add(entry);
+            }
+        }
+        return 0; // 车次已经在第 1 段算过
+    }
+
+    private static CarServer.Direction next(Entry entry, long now) {
+        try {
+            return entry.controller.nextMove(entry.car, now);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static boolean step(Entry entry, CarServer.Direction direction, long now) {
+        try {
+            boolean success = entry.car.step(direction);
+            entry.controller.moveResult(entry.car, direction, success, now);
+            return success;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /* ===== 工具方法 ===== */
+    // 格子所在的组整组归组里第一格所在行的块；块列按这一行对齐到组边界之后的列号算。
+    // 地图外的格子算在最近的块里（移动会撞边界失败，不需要交接）
+    private int tileOf(long packed) {
+        int row = Math.max(0, Math.min(field.rows - 1, Position.rowOf(packed)));
+        int col = Math.max(0, Math.min(field.cols - 1, Position.colOf(packed)));
+        long group = ((long) row * field.cols + col) & -COL_ALIGN;
+        int groupRow = (int) (group / field.cols);
+        long rowStart = ((long) groupRow * field.cols) & -COL_ALIGN;
+        return (groupRow / tileHeight) * tileCols + (int) Math.min(tileCols - 1, (group - rowStart) / tileWidth);
+    }
+
+    // 块按行优先编号，每个线程分到连续的一段，相邻的块大多在同一个线程里
+    private int firstTile(int worker) {
+        return (int) ((long) tiles.length * worker / workerCount);
+    }
+
+    // 顺序无关，用末尾元素填空位
+    private static void removeAt(List<Entry> list, int i) {
+        int last = list.size() - 1;
+        list.set(i, list.get(last));
+        list.remove(last);
+    }
+}
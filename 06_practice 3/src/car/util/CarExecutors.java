@@ -0,0 +1,41 @@
+package car.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// 车的行为（CarMover 循环、Script.execute）跑在哪种线程上
+public class CarExecutors {
+    private static final Method newVirtualThreadPerTaskExecutor = lookupVirtual();
+
+    // JDK 21 之前没有虚拟线程，用反射找，找不到就退回平台线程
+    private static Method lookupVirtual(){
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static boolean virtualThreadsSupported(){
+        return newVirtualThreadPerTaskExecutor != null;
+    }
+
+    // 每个任务一个平台线程（原来的 new Thread(...).start()）
+    public static ExecutorService platformThreads(){
+        return Executors.newCachedThreadPool();
+    }
+
+    // 每个任务一个虚拟线程：Thread.sleep 和 ReentrantLock 等待时会让出载体线程
+    public static ExecutorService virtualThreads(){
+        if (newVirtualThreadPerTaskExecutor == null) {
+            System.err.println("Virtual threads need JDK 21+, falling back to platform threads");
+            return platformThreads();
+        }
+        try {
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,20 +2,34 @@ package car.util;
 
 import java.awt.*;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 public class ColorFactory {
-    private static Class classz = Color.class;
     private static Color defaultColor = Color.RED;
+    // Color 的常量名（red / RED 都有）-> Color，类加载时反射一次
+    private static final Map<String, Color> colors = new HashMap<>();
+
+    static{
+        for (Field field : Color.class.getFields()) {
+            if (field.getType() != Color.class || !Modifier.isStatic(field.getModifiers())) continue;
+            try {
+                colors.put(field.getName(), (Color) field.get(null));
+            } catch (IllegalAccessException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
     public static Color getColor(String colorName){ // Green --> GREEN
-        try {
-            Field field  = classz.getDeclaredField(colorName.toUpperCase());
-            return (Color)field.get(null);
-        } catch (NoSuchFieldException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+        Color color = colors.get(colorName);
+        if (color == null) color = colors.get(colorName.toUpperCase(Locale.ROOT));
+        if (color == null) {
+            System.err.println("Unknown color: " + colorName);
+            return defaultColor;
         }
-        return defaultColor;
+        return color;
     }
 }